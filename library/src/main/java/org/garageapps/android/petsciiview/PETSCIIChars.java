@@ -1,5 +1,8 @@
 package org.garageapps.android.petsciiview;
 
+import java.text.Normalizer;
+import java.util.Arrays;
+
 /**
  * PETSCIIChars
  * <p>
@@ -7,6 +10,345 @@ package org.garageapps.android.petsciiview;
  */
 public class PETSCIIChars {
 
+    /**
+     * Lookup tables from unicode to screen code, built on first use (volatile as screen buffers are filled on worker
+     * threads)
+     */
+    private static volatile short[] uppercaseCodes;
+    private static volatile short[] lowercaseCodes;
+
+    /**
+     * Tables of the last used custom character set, cached by identity (guarded by the class lock)
+     */
+    private static char[] customCodeCharset;
+    private static short[] customCodes;
+    private static char[] customTranslationCharset;
+    private static char[] customTranslation;
+
+    /**
+     * Lookup tables from unicode to the closest char of a character set, built on first use
+     */
+    private static volatile char[] uppercaseTranslation;
+    private static volatile char[] lowercaseTranslation;
+
+    /**
+     * Unicode graphics and their screen codes in the uppercase and lowercase set (-1 if the set has no such glyph)
+     */
+    private static final String[] GRAPHICS_CHARS = {
+            "\u2500\u2501\u2550", "\u2502\u2503\u2551|", "\u250c\u250f\u2554", "\u2510\u2513\u2557", "\u2514\u2517\u255a",
+            "\u2518\u251b\u255d", "\u251c\u2523\u2560", "\u2524\u252b\u2563", "\u252c\u2533\u2566", "\u2534\u253b\u2569",
+            "\u253c\u254b\u256c", "\u256d", "\u256e", "\u2570", "\u256f", "\u2571", "\u2572\\", "\u2573",
+            "\u2588", "\u258c", "\u2590", "\u2584", "\u2580", "\u2591\u2592\u2593", "\u2594", "\u2581_", "\u258f",
+            "\u2595", "\u2597", "\u2596", "\u259d", "\u2598", "\u259a", "\u2582", "\u2583", "\u258e", "\u258d",
+            "\u2660", "\u2665", "\u2663", "\u2666", "\u25cf\u2022", "\u25cb\u25e6", "\u03c0", "\u25e5", "\u25e4",
+            "^"
+    };
+    private static final int[] GRAPHICS_UPPERCASE_CODES = {
+            64, 93, 112, 110, 109,
+            125, 107, 115, 114, 113,
+            91, 85, 73, 74, 75, 78, 77, 86,
+            160, 97, 225, 98, 226, 102, 99, 100, 101,
+            103, 108, 123, 124, 126, 127, 111, 121, 116, 117,
+            65, 83, 88, 90, 81, 87, 94, 95, 105,
+            30
+    };
+    private static final int[] GRAPHICS_LOWERCASE_CODES = {
+            64, 93, 112, 110, 109,
+            125, 107, 115, 114, 113,
+            91, 112, 110, 109, 125, -1, -1, -1,
+            160, 97, 225, 98, 226, 102, 99, 100, 101,
+            103, 108, 123, 124, 126, 127, 111, 121, 116, 117,
+            -1, -1, -1, -1, -1, -1, -1, -1, 105,
+            30
+    };
+
+    /**
+     * Typographic unicode and their ASCII replacements
+     */
+    private static final String ASCII_SOURCE_CHARS =
+            "\u2018\u2019\u201a\u201b\u2032`\u00b4\u201c\u201d\u201e\u201f\u2033\u2010\u2011\u2012\u2013\u2014\u2015\u2212~" +
+                    "\u2026\u00ab\u2039\u00bb\u203a\u00d7\u00f7\u2022\u00b7{}\u00a0\u2002\u2003\u2009\u202f";
+    private static final String ASCII_TARGET_CHARS =
+            "'''''''\"\"\"\"\"--------" +
+                    ".<<>>*/*.()     ";
+
+    /**
+     * Return screen code of a char in given character set or -1 if the set doesn't contain it
+     *
+     * @param charset
+     *         {@link #UPPERCASE} or {@link #LOWERCASE}
+     * @param chr
+     *         unicode char
+     */
+    public static int getScreenCode(char[] charset, char chr) {
+        return getCodeTable(charset)[chr];
+    }
+
+    /**
+     * Return unicode to screen code lookup table for given character set <p><i>Custom sets must not be modified
+     * after the first lookup</i></p>
+     */
+    static short[] getCodeTable(char[] charset) {
+
+        if (charset == UPPERCASE) {
+            if (uppercaseCodes == null) {
+                uppercaseCodes = createCodeTable(UPPERCASE);
+            }
+            return uppercaseCodes;
+        }
+
+        if (charset == LOWERCASE) {
+            if (lowercaseCodes == null) {
+                lowercaseCodes = createCodeTable(LOWERCASE);
+            }
+            return lowercaseCodes;
+        }
+
+        return getCustomCodeTable(charset);
+    }
+
+    /**
+     * Return code table of a custom character set, rebuilt only when a different set is used
+     */
+    private static synchronized short[] getCustomCodeTable(char[] charset) {
+
+        if (charset != customCodeCharset) {
+            customCodes = createCodeTable(charset);
+            customCodeCharset = charset;
+        }
+
+        return customCodes;
+    }
+
+    /**
+     * Return closest char of given character set for a unicode char <p><i>Letters are case folded and stripped of
+     * diacritics, box drawing and block elements map to PETSCII graphics, typographic punctuation maps to ASCII and
+     * anything else to a question mark. Control chars are kept.</i></p>
+     *
+     * @param charset
+     *         {@link #UPPERCASE} or {@link #LOWERCASE}
+     * @param chr
+     *         unicode char
+     */
+    public static char translate(char[] charset, char chr) {
+        return getTranslationTable(charset)[chr];
+    }
+
+    /**
+     * Translate chars in place
+     *
+     * @param charset
+     *         {@link #UPPERCASE} or {@link #LOWERCASE}
+     * @param chars
+     *         chars
+     * @param offset
+     *         first char
+     * @param length
+     *         number of chars
+     */
+    public static void translate(char[] charset, char[] chars, int offset, int length) {
+
+        char[] table = getTranslationTable(charset);
+
+        for (int i = offset; i < offset + length; i++) {
+            chars[i] = table[chars[i]];
+        }
+    }
+
+    /**
+     * Return translated text
+     *
+     * @param charset
+     *         {@link #UPPERCASE} or {@link #LOWERCASE}
+     * @param text
+     *         text
+     */
+    public static String translate(char[] charset, String text) {
+        char[] chars = text.toCharArray();
+        translate(charset, chars, 0, chars.length);
+        return new String(chars);
+    }
+
+    /**
+     * Return unicode to closest char translation table for given character set <p><i>Custom sets must not be
+     * modified after the first lookup</i></p>
+     */
+    static char[] getTranslationTable(char[] charset) {
+
+        if (charset == UPPERCASE) {
+            if (uppercaseTranslation == null) {
+                uppercaseTranslation = createTranslationTable(UPPERCASE, GRAPHICS_UPPERCASE_CODES);
+            }
+            return uppercaseTranslation;
+        }
+
+        if (charset == LOWERCASE) {
+            if (lowercaseTranslation == null) {
+                lowercaseTranslation = createTranslationTable(LOWERCASE, GRAPHICS_LOWERCASE_CODES);
+            }
+            return lowercaseTranslation;
+        }
+
+        return getCustomTranslationTable(charset);
+    }
+
+    /**
+     * Return translation table of a custom character set, rebuilt only when a different set is used
+     */
+    private static synchronized char[] getCustomTranslationTable(char[] charset) {
+
+        if (charset != customTranslationCharset) {
+            customTranslation = createTranslationTable(charset, null);
+            customTranslationCharset = charset;
+        }
+
+        return customTranslation;
+    }
+
+    /**
+     * Create translation table indexed by unicode (whole BMP)
+     *
+     * @param charset
+     *         character set
+     * @param graphicsCodes
+     *         screen codes of {@link #GRAPHICS_CHARS} in the set or null if unknown
+     */
+    private static char[] createTranslationTable(char[] charset, int[] graphicsCodes) {
+
+        short[] codes = getCodeTable(charset);
+        char[] table = new char[65536];
+
+        // chars of the set and control chars map to themselves, anything else to a question mark
+        for (int chr = 0; chr < table.length; chr++) {
+            table[chr] = (codes[chr] != -1 || chr < 32) ? (char) chr : '?';
+        }
+
+        // graphics
+        if (graphicsCodes != null) {
+            for (int i = 0; i < GRAPHICS_CHARS.length; i++) {
+                if (graphicsCodes[i] != -1) {
+                    for (int j = 0; j < GRAPHICS_CHARS[i].length(); j++) {
+                        char chr = GRAPHICS_CHARS[i].charAt(j);
+                        if (codes[chr] == -1) {
+                            table[chr] = charset[graphicsCodes[i]];
+                        }
+                    }
+                }
+            }
+        }
+
+        // typographic punctuation
+        for (int i = 0; i < ASCII_SOURCE_CHARS.length(); i++) {
+            char chr = ASCII_SOURCE_CHARS.charAt(i);
+            if (table[chr] == '?' && codes[ASCII_TARGET_CHARS.charAt(i)] != -1) {
+                table[chr] = ASCII_TARGET_CHARS.charAt(i);
+            }
+        }
+
+        // letters: other case, then without diacritics
+        for (int chr = 0; chr < table.length; chr++) {
+            if (table[chr] == '?' && chr != '?' && Character.isLetter(chr)) {
+                table[chr] = translateLetter(codes, (char) chr);
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * Return letter of the set in the other case or without diacritics, or a question mark
+     */
+    private static char translateLetter(short[] codes, char chr) {
+
+        char base = chr;
+        if (hasDiacriticForms(chr) && Character.getType(chr) != Character.OTHER_LETTER) {
+            String decomposed = Normalizer.normalize(String.valueOf(chr), Normalizer.Form.NFD);
+            base = decomposed.charAt(0);
+        }
+
+        char[] candidates = {base, Character.toUpperCase(base), Character.toLowerCase(base)};
+        for (char candidate : candidates) {
+            if (codes[candidate] != -1) {
+                return candidate;
+            }
+        }
+
+        return '?';
+    }
+
+    /**
+     * Return true if the char is a non-ASCII char of the Latin, Greek, Cyrillic or letterlike symbols blocks <p><i>Only
+     * their letters are decomposed, normalizing every letter of the BMP made the first translation table slow to
+     * build</i></p>
+     */
+    private static boolean hasDiacriticForms(char chr) {
+        return (chr > 0x7f && chr <= 0x04ff) || (chr >= 0x1e00 && chr <= 0x1fff) || (chr >= 0x2100 && chr <= 0x214f);
+    }
+
+    /**
+     * Return search mask of chars (one of 64 bits per char, spaces are ignored) <p><i>A row can only contain a text
+     * if its mask covers the mask of the text</i></p>
+     */
+    static long getCharMask(char[] chars, int offset, int length) {
+
+        long mask = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            if (chars[i] != ' ') {
+                mask |= 1L << ((chars[i] * 0x9e3779b1) >>> 26);
+            }
+        }
+
+        return mask;
+    }
+
+    /**
+     * Return true if given text occurs in chars at given offset
+     */
+    static boolean regionMatches(char[] chars, int offset, char[] text) {
+
+        for (int i = 0; i < text.length; i++) {
+            if (chars[offset + i] != text[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Return same char but reversed
+     */
+    static char getReversedChar(char chr) {
+
+        int code = getScreenCode(UPPERCASE, chr);
+        if (code != -1) {
+            return UPPERCASE[(code + 128) % 256];
+        }
+
+        code = getScreenCode(LOWERCASE, chr);
+        if (code != -1) {
+            return LOWERCASE[(code + 128) % 256];
+        }
+
+        return chr;
+    }
+
+    /**
+     * Create lookup table indexed by unicode (whole BMP), the lowest screen code wins for duplicated chars
+     */
+    private static short[] createCodeTable(char[] charset) {
+
+        short[] codes = new short[65536];
+        Arrays.fill(codes, (short) -1);
+
+        for (int i = charset.length - 1; i >= 0; i--) {
+            codes[charset[i]] = (short) i;
+        }
+
+        return codes;
+    }
+
     public static final char[] UPPERCASE = {
 
             // reverse off
@@ -0,0 +1,288 @@
+package org.garageapps.android.petsciiview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PETSCIICharset
+ * <p>
+ * Redefinable 8x8 character set (2 KB ROM, 8 bytes per glyph, most significant bit is the leftmost pixel) rendered
+ * through a cached glyph atlas. Screen RAM chars are mapped to glyphs by their position in {@link PETSCIIChars#UPPERCASE}
+ * or {@link PETSCIIChars#LOWERCASE}. Redefining a glyph re-rasterizes only that glyph and redraws only the cells using it.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIICharset {
+
+    public static final int GLYPH_COUNT = 256;
+    public static final int GLYPH_SIZE = 8;
+    public static final int ROM_SIZE = GLYPH_COUNT * GLYPH_SIZE;
+
+    /**
+     * Glyph atlas layout (16 by 16 glyphs)
+     */
+    private static final int ATLAS_COLUMNS = 16;
+
+    private final char[] chars;
+    private final short[] codes;
+    private final byte[] rom = new byte[ROM_SIZE];
+    private final boolean[] blank = new boolean[GLYPH_COUNT];
+    private final Bitmap atlas;
+    private Bitmap[] multicolorAtlases;
+    private final int[] glyphPixels = new int[GLYPH_SIZE * GLYPH_SIZE];
+    private final List<PETSCIIView> views = new ArrayList<>();
+
+    /**
+     * Constructor
+     *
+     * @param rom
+     *         character ROM (2048 bytes)
+     * @param chars
+     *         {@link PETSCIIChars#UPPERCASE} or {@link PETSCIIChars#LOWERCASE}, maps screen RAM chars to glyphs
+     */
+    public PETSCIICharset(byte[] rom, char[] chars) {
+
+        if (rom.length < ROM_SIZE) {
+            throw new IllegalArgumentException("Character ROM must have " + ROM_SIZE + " bytes");
+        }
+
+        this.chars = chars;
+        codes = PETSCIIChars.getCodeTable(chars);
+        atlas = Bitmap.createBitmap(ATLAS_COLUMNS * GLYPH_SIZE, (GLYPH_COUNT / ATLAS_COLUMNS) * GLYPH_SIZE, Bitmap.Config.ALPHA_8);
+
+        System.arraycopy(rom, 0, this.rom, 0, ROM_SIZE);
+        for (int code = 0; code < GLYPH_COUNT; code++) {
+            rasterizeGlyph(code);
+        }
+    }
+
+    /**
+     * Create character set by rasterizing a typeface at 8 pixels
+     *
+     * @param typeface
+     *         pixel font (e.g. the bundled C64 Pro Mono)
+     * @param chars
+     *         {@link PETSCIIChars#UPPERCASE} or {@link PETSCIIChars#LOWERCASE}
+     */
+    public static PETSCIICharset fromTypeface(Typeface typeface, char[] chars) {
+
+        Paint paint = new Paint();
+        paint.setTypeface(typeface);
+        paint.setTextSize(GLYPH_SIZE);
+        paint.setColor(Color.WHITE);
+
+        // baseline from the highest available character (reversed space), same as the view
+        Rect bounds = new Rect();
+        paint.getTextBounds(String.valueOf(PETSCIIChars.UPPERCASE[160]), 0, 1, bounds);
+        float baseline = bounds.height() - bounds.bottom;
+
+        Bitmap bitmap = Bitmap.createBitmap(GLYPH_SIZE, GLYPH_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        int[] pixels = new int[GLYPH_SIZE * GLYPH_SIZE];
+        char[] text = new char[1];
+        byte[] rom = new byte[ROM_SIZE];
+
+        for (int code = 0; code < GLYPH_COUNT; code++) {
+
+            bitmap.eraseColor(Color.TRANSPARENT);
+            text[0] = chars[code];
+            canvas.drawText(text, 0, 1, 0, baseline, paint);
+            bitmap.getPixels(pixels, 0, GLYPH_SIZE, 0, 0, GLYPH_SIZE, GLYPH_SIZE);
+
+            // threshold pixels into glyph rows
+            for (int y = 0; y < GLYPH_SIZE; y++) {
+                int row = 0;
+                for (int x = 0; x < GLYPH_SIZE; x++) {
+                    if ((pixels[x + y * GLYPH_SIZE] >>> 24) >= 0x80) {
+                        row |= 0x80 >> x;
+                    }
+                }
+                rom[code * GLYPH_SIZE + y] = (byte) row;
+            }
+        }
+
+        bitmap.recycle();
+
+        return new PETSCIICharset(rom, chars);
+    }
+
+    /**
+     * Redefine a glyph
+     *
+     * @param code
+     *         screen code
+     * @param data
+     *         8 bytes of glyph rows
+     */
+    public void setGlyph(int code, byte[] data) {
+
+        if (code < 0 || code >= GLYPH_COUNT || data.length < GLYPH_SIZE) {
+            return;
+        }
+
+        System.arraycopy(data, 0, rom, code * GLYPH_SIZE, GLYPH_SIZE);
+        rasterizeGlyph(code);
+        if (multicolorAtlases != null) {
+            rasterizeMulticolorGlyph(code);
+        }
+
+        for (PETSCIIView view : views) {
+            view.invalidateChar(chars[code]);
+        }
+    }
+
+    /**
+     * Return glyph row
+     *
+     * @param code
+     *         screen code
+     * @param y
+     *         row (0 - 7)
+     */
+    public int getGlyphRow(int code, int y) {
+        return rom[code * GLYPH_SIZE + y] & 0xff;
+    }
+
+    /**
+     * Return glyph as a 64 bit mask, row 0 in the most significant byte
+     *
+     * @param code
+     *         screen code
+     */
+    public long getGlyphMask(int code) {
+
+        long mask = 0;
+        for (int y = 0; y < GLYPH_SIZE; y++) {
+            mask = (mask << 8) | (rom[code * GLYPH_SIZE + y] & 0xff);
+        }
+
+        return mask;
+    }
+
+    /**
+     * Return screen code for a screen RAM char or -1 if the char isn't part of the set
+     */
+    public int getScreenCode(char chr) {
+        return codes[chr];
+    }
+
+    /**
+     * Return screen RAM char of a screen code
+     */
+    public char getChar(int code) {
+        return chars[code];
+    }
+
+    /**
+     * Return unicode chars the set is mapped to
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * Return true if glyph has no pixels set
+     */
+    boolean isBlank(int code) {
+        return blank[code];
+    }
+
+    /**
+     * Return glyph atlas (alpha only, meant to be drawn with a colored paint)
+     */
+    Bitmap getAtlas() {
+        return atlas;
+    }
+
+    /**
+     * Return multicolor glyph atlas of a bit pair (1 - 3), built on first use
+     */
+    Bitmap getMulticolorAtlas(int bits) {
+
+        if (multicolorAtlases == null) {
+            multicolorAtlases = new Bitmap[3];
+            for (int i = 0; i < multicolorAtlases.length; i++) {
+                multicolorAtlases[i] = Bitmap.createBitmap(atlas.getWidth(), atlas.getHeight(), Bitmap.Config.ALPHA_8);
+            }
+            for (int code = 0; code < GLYPH_COUNT; code++) {
+                rasterizeMulticolorGlyph(code);
+            }
+        }
+
+        return multicolorAtlases[bits - 1];
+    }
+
+    /**
+     * Set atlas source rectangle of a glyph
+     */
+    void getGlyphBounds(int code, Rect bounds) {
+        int left = (code % ATLAS_COLUMNS) * GLYPH_SIZE;
+        int top = (code / ATLAS_COLUMNS) * GLYPH_SIZE;
+        bounds.set(left, top, left + GLYPH_SIZE, top + GLYPH_SIZE);
+    }
+
+    /**
+     * Register view which needs to be redrawn when glyphs change <p><i>Views are registered only while attached to a
+     * window</i></p>
+     */
+    void attach(PETSCIIView view) {
+        if (!views.contains(view)) {
+            views.add(view);
+        }
+    }
+
+    /**
+     * Unregister view
+     */
+    void detach(PETSCIIView view) {
+        views.remove(view);
+    }
+
+    /**
+     * Rasterize single glyph into the atlas
+     */
+    private void rasterizeGlyph(int code) {
+
+        boolean empty = true;
+
+        for (int y = 0; y < GLYPH_SIZE; y++) {
+            int row = rom[code * GLYPH_SIZE + y] & 0xff;
+            empty &= row == 0;
+            for (int x = 0; x < GLYPH_SIZE; x++) {
+                glyphPixels[x + y * GLYPH_SIZE] = ((row & (0x80 >> x)) != 0) ? Color.WHITE : Color.TRANSPARENT;
+            }
+        }
+
+        blank[code] = empty;
+        atlas.setPixels(glyphPixels, 0, GLYPH_SIZE, (code % ATLAS_COLUMNS) * GLYPH_SIZE, (code / ATLAS_COLUMNS) * GLYPH_SIZE,
+                GLYPH_SIZE, GLYPH_SIZE);
+    }
+
+    /**
+     * Rasterize single glyph into the multicolor atlases, each bit pair covers two pixels
+     */
+    private void rasterizeMulticolorGlyph(int code) {
+
+        for (int bits = 1; bits <= multicolorAtlases.length; bits++) {
+
+            for (int y = 0; y < GLYPH_SIZE; y++) {
+                int row = rom[code * GLYPH_SIZE + y] & 0xff;
+                for (int x = 0; x < GLYPH_SIZE; x += 2) {
+                    int pixel = (((row >> (6 - x)) & 0x03) == bits) ? Color.WHITE : Color.TRANSPARENT;
+                    glyphPixels[x + y * GLYPH_SIZE] = pixel;
+                    glyphPixels[x + 1 + y * GLYPH_SIZE] = pixel;
+                }
+            }
+
+            multicolorAtlases[bits - 1].setPixels(glyphPixels, 0, GLYPH_SIZE, (code % ATLAS_COLUMNS) * GLYPH_SIZE,
+                    (code / ATLAS_COLUMNS) * GLYPH_SIZE, GLYPH_SIZE, GLYPH_SIZE);
+        }
+    }
+}
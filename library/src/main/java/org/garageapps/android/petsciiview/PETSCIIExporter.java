@@ -0,0 +1,512 @@
+package org.garageapps.android.petsciiview;
+
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * PETSCIIExporter
+ * <p>
+ * Exports {@link PETSCIIView} content (border, raster colors, character modes and layers) as 16 color indexed PNG
+ * images and animated GIFs. Images use C64 pixels (8 per character) times an integer scale. Scanlines are rendered
+ * straight from screen and color RAM into palette indices and encoded one by one, so memory stays bounded by a few
+ * scanlines whatever the scale or the number of frames. Sprites are not exported.
+ * <p>
+ * The view is read while writing, so all methods must be called on the UI thread.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIExporter {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    /**
+     * PNG data chunk size
+     */
+    private static final int IDAT_SIZE = 0x8000;
+
+    /**
+     * GIF LZW codes for 4 bit pixels
+     */
+    private static final int GIF_CLEAR_CODE = 16;
+    private static final int GIF_END_CODE = 17;
+    private static final int GIF_MAX_CODES = 4096;
+
+    private final PETSCIIView view;
+    private final int scale;
+    private final int borderLeft;
+    private final int borderTop;
+    private final int borderRight;
+    private final int borderBottom;
+    private final int width;
+    private final int height;
+
+    // composed cell row
+    private final char[] rowChars;
+    private final int[] rowColors;
+    private final int[] rowBkgColors;
+    private final int[] rowMulticolorCodes;
+    private final int[] rowCodes;
+    private final PETSCIICharset[] rowCharsets;
+    private int rowBorderColor;
+    private int composedY;
+
+    // scanline of palette indices
+    private final byte[] scanline;
+
+    // gif encoder state
+    private OutputStream gifOut;
+    private int[] lzwCodes;
+    private int lzwPrefix;
+    private int lzwNextCode;
+    private int lzwCodeSize;
+    private int lzwBits;
+    private int lzwBitCount;
+    private final byte[] gifBlock = new byte[255];
+    private int gifBlockSize;
+
+    /**
+     * Constructor <p><i>Image size is fixed at construction, create a new exporter after the view changes size</i></p>
+     *
+     * @param view
+     *         view to export
+     * @param scale
+     *         output pixels per C64 pixel (1 or more)
+     */
+    public PETSCIIExporter(PETSCIIView view, int scale) {
+
+        this.view = view;
+        this.scale = Math.max(1, scale);
+
+        // border sizes in C64 pixels
+        Rect borderSize = view.getBorderSize();
+        int fontSize = view.getFontSize();
+        borderLeft = Math.round(borderSize.left * 8f / fontSize);
+        borderTop = Math.round(borderSize.top * 8f / fontSize);
+        borderRight = Math.round(borderSize.right * 8f / fontSize);
+        borderBottom = Math.round(borderSize.bottom * 8f / fontSize);
+
+        width = (borderLeft + view.getScreenWidth() * 8 + borderRight) * this.scale;
+        height = (borderTop + view.getScreenHeight() * 8 + borderBottom) * this.scale;
+
+        int screenWidth = view.getScreenWidth();
+        rowChars = new char[screenWidth];
+        rowColors = new int[screenWidth];
+        rowBkgColors = new int[screenWidth];
+        rowMulticolorCodes = new int[screenWidth];
+        rowCodes = new int[screenWidth];
+        rowCharsets = new PETSCIICharset[screenWidth];
+        scanline = new byte[width];
+    }
+
+    /**
+     * Return image width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Return image height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Write current view content as 4 bit indexed PNG <p><i>The stream is not closed</i></p>
+     */
+    public void writePng(OutputStream out) throws IOException {
+
+        out.write(PNG_SIGNATURE);
+
+        // header: size, 4 bit depth, indexed color
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 4;
+        header[9] = 3;
+        writePngChunk(out, "IHDR", header, header.length);
+
+        // palette
+        byte[] palette = getPalette();
+        writePngChunk(out, "PLTE", palette, palette.length);
+
+        // scanlines, two pixels per byte after the filter byte
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        PngDataStream dataStream = new PngDataStream(out);
+        DeflaterOutputStream deflaterStream = new DeflaterOutputStream(dataStream, deflater, IDAT_SIZE);
+        byte[] row = new byte[1 + (width + 1) / 2];
+        composedY = -1;
+
+        for (int py = 0; py < height; py++) {
+            renderScanline(py);
+            for (int px = 0; px < width; px += 2) {
+                int right = (px + 1 < width) ? scanline[px + 1] : 0;
+                row[1 + px / 2] = (byte) ((scanline[px] << 4) | right);
+            }
+            deflaterStream.write(row);
+        }
+
+        deflaterStream.finish();
+        deflater.end();
+        dataStream.flushChunk();
+
+        writePngChunk(out, "IEND", new byte[0], 0);
+    }
+
+    /**
+     * Start animated GIF <p><i>Add frames with {@link #addGifFrame} and finish with {@link #endGif}, the stream is not
+     * closed</i></p>
+     *
+     * @param out
+     *         output stream
+     * @param loopCount
+     *         number of repetitions, 0 loops forever
+     */
+    public void beginGif(OutputStream out, int loopCount) throws IOException {
+
+        gifOut = out;
+        lzwCodes = new int[GIF_MAX_CODES << 4];
+
+        // header and logical screen with global 16 color table
+        out.write(new byte[]{'G', 'I', 'F', '8', '9', 'a'});
+        writeShort(out, width);
+        writeShort(out, height);
+        out.write(0xb3);
+        out.write(0);
+        out.write(0);
+        out.write(getPalette());
+
+        // looping extension
+        out.write(new byte[]{0x21, (byte) 0xff, 0x0b, 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0', 0x03, 0x01});
+        writeShort(out, loopCount);
+        out.write(0);
+    }
+
+    /**
+     * Add current view content as GIF frame
+     *
+     * @param delayMillis
+     *         frame duration in milliseconds (10 ms resolution)
+     */
+    public void addGifFrame(int delayMillis) throws IOException {
+
+        OutputStream out = gifOut;
+
+        // graphic control extension with delay
+        out.write(new byte[]{0x21, (byte) 0xf9, 0x04, 0x00});
+        writeShort(out, Math.max(0, delayMillis / 10));
+        out.write(0);
+        out.write(0);
+
+        // image descriptor covering the whole image
+        out.write(0x2c);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, width);
+        writeShort(out, height);
+        out.write(0);
+
+        // LZW compressed pixels, 4 bit minimum code size
+        out.write(4);
+        composedY = -1;
+        lzwStart();
+        for (int py = 0; py < height; py++) {
+            renderScanline(py);
+            for (int px = 0; px < width; px++) {
+                lzwPixel(scanline[px]);
+            }
+        }
+        lzwEnd();
+        out.write(0);
+    }
+
+    /**
+     * Finish animated GIF
+     */
+    public void endGif() throws IOException {
+        gifOut.write(0x3b);
+        gifOut.flush();
+        gifOut = null;
+        lzwCodes = null;
+    }
+
+    /**
+     * Render palette indices of a scanline
+     */
+    private void renderScanline(int py) {
+
+        int y = py / scale - borderTop;
+        int screenY = y >> 3;
+
+        // border rows
+        if (y < 0 || screenY >= view.getScreenHeight()) {
+            Arrays.fill(scanline, (byte) view.getBorderColor());
+            return;
+        }
+
+        // compose cell row once for its first scanline
+        if (screenY != composedY) {
+            composeRow(screenY);
+        }
+
+        int glyphY = y & 7;
+        int px = 0;
+
+        // left border
+        Arrays.fill(scanline, 0, borderLeft * scale, (byte) rowBorderColor);
+        px += borderLeft * scale;
+
+        for (int x = 0; x < rowChars.length; x++) {
+
+            int glyphRow = (rowCodes[x] != -1) ? rowCharsets[x].getGlyphRow(rowCodes[x], glyphY) : 0;
+
+            for (int bit = 0; bit < 8; bit++) {
+
+                int color;
+
+                // multicolor cells: bit pairs select background, two registers or the cell color
+                if (rowMulticolorCodes[x] != -1) {
+                    int bits = (glyphRow >> (6 - (bit & 6))) & 0x03;
+                    color = (bits == 0) ? rowBkgColors[x] : (bits == 3) ? rowColors[x] & 0x07 :
+                            view.getExtendedBkgColor(bits);
+                } else {
+                    color = ((glyphRow & (0x80 >> bit)) != 0) ? rowColors[x] : rowBkgColors[x];
+                }
+
+                for (int i = 0; i < scale; i++) {
+                    scanline[px++] = (byte) color;
+                }
+            }
+        }
+
+        // right border
+        Arrays.fill(scanline, px, width, (byte) rowBorderColor);
+    }
+
+    /**
+     * Compose cell row and look up glyphs
+     */
+    private void composeRow(int y) {
+
+        composedY = y;
+        view.composeRow(y, rowChars, rowColors, rowBkgColors, rowMulticolorCodes);
+        rowBorderColor = view.getRowBorderColor(y);
+
+        for (int x = 0; x < rowChars.length; x++) {
+            PETSCIICharset charset = view.getGlyphCharset(rowChars[x]);
+            int code = (rowMulticolorCodes[x] != -1) ? rowMulticolorCodes[x] : charset.getScreenCode(rowChars[x]);
+            rowCharsets[x] = charset;
+            rowCodes[x] = code;
+        }
+    }
+
+    /**
+     * Return 16 color palette as RGB triplets
+     */
+    private static byte[] getPalette() {
+
+        byte[] palette = new byte[3 * PETSCIIColors.C64.length];
+
+        for (int i = 0; i < PETSCIIColors.C64.length; i++) {
+            int color = Color.parseColor(PETSCIIColors.C64[i]);
+            palette[3 * i] = (byte) Color.red(color);
+            palette[3 * i + 1] = (byte) Color.green(color);
+            palette[3 * i + 2] = (byte) Color.blue(color);
+        }
+
+        return palette;
+    }
+
+    /**
+     * Write PNG chunk with length and checksum
+     */
+    private static void writePngChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+
+        byte[] header = new byte[8];
+        putInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+
+        byte[] checksum = new byte[4];
+        putInt(checksum, 0, (int) crc.getValue());
+
+        out.write(header);
+        out.write(data, 0, length);
+        out.write(checksum);
+    }
+
+    /**
+     * Put big endian int
+     */
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >> 24);
+        buffer[offset + 1] = (byte) (value >> 16);
+        buffer[offset + 2] = (byte) (value >> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Write little endian short
+     */
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+
+    /**
+     * Start LZW code stream of a frame
+     */
+    private void lzwStart() {
+        Arrays.fill(lzwCodes, 0);
+        lzwPrefix = -1;
+        lzwNextCode = GIF_END_CODE + 1;
+        lzwCodeSize = 5;
+        lzwBits = 0;
+        lzwBitCount = 0;
+        gifBlockSize = 0;
+        lzwWriteCode(GIF_CLEAR_CODE);
+    }
+
+    /**
+     * Add pixel to LZW code stream <p><i>Dictionary is a direct table indexed by prefix code and pixel</i></p>
+     */
+    private void lzwPixel(int pixel) throws IOException {
+
+        if (lzwPrefix == -1) {
+            lzwPrefix = pixel;
+            return;
+        }
+
+        int key = (lzwPrefix << 4) | pixel;
+        if (lzwCodes[key] != 0) {
+            lzwPrefix = lzwCodes[key];
+            return;
+        }
+
+        lzwWriteCode(lzwPrefix);
+        lzwPrefix = pixel;
+
+        // add sequence or start over when the dictionary is full
+        if (lzwNextCode < GIF_MAX_CODES) {
+            lzwCodes[key] = lzwNextCode++;
+        } else {
+            Arrays.fill(lzwCodes, 0);
+            lzwWriteCode(GIF_CLEAR_CODE);
+            lzwNextCode = GIF_END_CODE + 1;
+            lzwCodeSize = 5;
+        }
+
+        flushGifBlocks();
+    }
+
+    /**
+     * End LZW code stream and write remaining data blocks
+     */
+    private void lzwEnd() throws IOException {
+
+        if (lzwPrefix != -1) {
+            lzwWriteCode(lzwPrefix);
+        }
+        lzwWriteCode(GIF_END_CODE);
+
+        if (lzwBitCount > 0) {
+            gifBlock[gifBlockSize++] = (byte) lzwBits;
+        }
+
+        flushGifBlocks();
+        if (gifBlockSize > 0) {
+            gifOut.write(gifBlockSize);
+            gifOut.write(gifBlock, 0, gifBlockSize);
+            gifBlockSize = 0;
+        }
+    }
+
+    /**
+     * Pack code into the data block, code size grows once the next code no longer fits
+     */
+    private void lzwWriteCode(int code) {
+
+        lzwBits |= code << lzwBitCount;
+        lzwBitCount += lzwCodeSize;
+
+        while (lzwBitCount >= 8) {
+            gifBlock[gifBlockSize++] = (byte) lzwBits;
+            lzwBits >>>= 8;
+            lzwBitCount -= 8;
+        }
+
+        if (code != GIF_CLEAR_CODE && lzwCodeSize < 12 && lzwNextCode > (1 << lzwCodeSize) - 1) {
+            lzwCodeSize++;
+        }
+    }
+
+    /**
+     * Write full data blocks
+     */
+    private void flushGifBlocks() throws IOException {
+        if (gifBlockSize >= gifBlock.length - 4) {
+            gifOut.write(gifBlockSize);
+            gifOut.write(gifBlock, 0, gifBlockSize);
+            gifBlockSize = 0;
+        }
+    }
+
+    /**
+     * Stream splitting compressed data into IDAT chunks
+     */
+    private static class PngDataStream extends OutputStream {
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[IDAT_SIZE];
+        private int size;
+
+        private PngDataStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            buffer[size++] = (byte) b;
+            if (size == buffer.length) {
+                flushChunk();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int count = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, count);
+                size += count;
+                off += count;
+                len -= count;
+                if (size == buffer.length) {
+                    flushChunk();
+                }
+            }
+        }
+
+        /**
+         * Write buffered data as IDAT chunk
+         */
+        private void flushChunk() throws IOException {
+            if (size > 0) {
+                writePngChunk(out, "IDAT", buffer, size);
+                size = 0;
+            }
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package org.garageapps.android.petsciiview;
 
+import android.text.TextUtils;
+
 /**
  * PETSCIIFormatter
  * <p>
- * Constants for {@link PETSCIIView#printFormattedText}
+ * Constants and parser for {@link PETSCIIView#printFormattedText} and {@link PETSCIIScreenBuffer#printFormattedText}
  */
 public class PETSCIIFormatter {
 
@@ -24,4 +26,170 @@ public class PETSCIIFormatter {
     public static final String UNKNOWN_FORMATTER_ERROR = "UNKNOWN FORMATTER ERROR";
     public static final String NUMBER_FORMAT_ERROR = "NUMBER FORMAT ERROR";
     public static final String PARSING_ERROR = "PARSING ERROR";
+
+    /**
+     * Print formatted text on given screen at given offset with given color
+     *
+     * @param screen
+     *         view or screen buffer
+     * @param text
+     *         text
+     * @param offset
+     *         offset position
+     * @param color
+     *         text color
+     */
+    static void printFormattedText(PETSCIIScreen screen, String text, int offset, int color) {
+
+        // check if string is empty
+        if (TextUtils.isEmpty(text)) {
+            return;
+        }
+
+        int textIndex = 0;
+        int lineStartOffset = offset;
+        boolean reverseEnabled = false;
+
+        try {
+            while (textIndex != text.length()) {
+
+                // get char
+                char chr = text.charAt(textIndex);
+
+                // formatter
+                if (chr == '{') {
+
+                    // clear screen
+                    if (text.startsWith(PETSCIIFormatter.CLR, textIndex + 1)) {
+                        screen.fillWithChar(' ');
+                        offset = 0;
+                        textIndex += 5;
+                    }
+
+                    // home
+                    else if (text.startsWith(PETSCIIFormatter.HOM, textIndex + 1)) {
+                        offset = 0;
+                        textIndex += 5;
+                    }
+
+                    // cursor up
+                    else if (text.startsWith(PETSCIIFormatter.CUP, textIndex + 1)) {
+                        offset -= parseNumber(text, textIndex + 5) * screen.getScreenWidth();
+                        textIndex += 8;
+                    }
+
+                    // cursor down
+                    else if (text.startsWith(PETSCIIFormatter.CDN, textIndex + 1)) {
+                        offset += parseNumber(text, textIndex + 5) * screen.getScreenWidth();
+                        textIndex += 8;
+                    }
+
+                    // cursor left
+                    else if (text.startsWith(PETSCIIFormatter.CLT, textIndex + 1)) {
+                        offset += parseNumber(text, textIndex + 5);
+                        textIndex += 8;
+                    }
+
+                    // cursor right
+                    else if (text.startsWith(PETSCIIFormatter.CRT, textIndex + 1)) {
+                        offset -= parseNumber(text, textIndex + 5);
+                        textIndex += 8;
+                    }
+
+                    // cursor color
+                    else if (text.startsWith(PETSCIIFormatter.COL, textIndex + 1)) {
+                        color = parseNumber(text, textIndex + 5);
+                        textIndex += 8;
+                    }
+
+                    // reverse on
+                    else if (text.startsWith(PETSCIIFormatter.RON, textIndex + 1)) {
+                        reverseEnabled = true;
+                        textIndex += 5;
+                    }
+
+                    // reverse off
+                    else if (text.startsWith(PETSCIIFormatter.ROF, textIndex + 1)) {
+                        reverseEnabled = false;
+                        textIndex += 5;
+                    }
+
+                    // unknown formatter
+                    else {
+                        printErrorMessage(screen, PETSCIIFormatter.UNKNOWN_FORMATTER_ERROR, text, textIndex + 1);
+                        break;
+                    }
+                }
+
+                // line break
+                else if (chr == 10) {
+                    // update offsets
+                    offset = lineStartOffset + screen.getScreenWidth();
+                    lineStartOffset = offset;
+                    textIndex++;
+                }
+
+                // char
+                else {
+                    // put data to RAM
+                    chr = screen.translateChar(chr);
+                    screen.putChar(reverseEnabled ? PETSCIIChars.getReversedChar(chr) : chr, offset);
+                    screen.putColor(color, offset);
+                    textIndex++;
+                    offset++;
+                }
+            }
+        } catch (NumberFormatException e) {
+            printErrorMessage(screen, PETSCIIFormatter.NUMBER_FORMAT_ERROR, text, textIndex + 5);
+        } catch (Exception e) {
+            printErrorMessage(screen, PETSCIIFormatter.PARSING_ERROR, text, textIndex);
+        }
+    }
+
+    /**
+     * Parse two char number at given index without creating substrings <p><i>Accepts the same input as
+     * Integer.valueOf, including a sign in the first place</i></p>
+     */
+    private static int parseNumber(String text, int index) {
+
+        if (index + 2 > text.length()) {
+            throw new StringIndexOutOfBoundsException(index + 2);
+        }
+
+        char first = text.charAt(index);
+        int ones = Character.digit(text.charAt(index + 1), 10);
+        if (ones == -1) {
+            throw new NumberFormatException();
+        }
+
+        if (first == '-') {
+            return -ones;
+        } else if (first == '+') {
+            return ones;
+        }
+
+        int tens = Character.digit(first, 10);
+        if (tens == -1) {
+            throw new NumberFormatException();
+        }
+
+        return tens * 10 + ones;
+    }
+
+    /**
+     * Print error message at top of the screen
+     *
+     * @param screen
+     *         view or screen buffer
+     * @param errorMessage
+     *         error message
+     * @param text
+     *         text which caused the error
+     * @param position
+     *         position where the error has occurred
+     */
+    private static void printErrorMessage(PETSCIIScreen screen, String errorMessage, String text, int position) {
+        printFormattedText(screen, "{RON}" + errorMessage + " AT POSITION " + position + "{ROF}", 0, 1);
+        screen.printText(text, 0, 1, 1);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,224 @@
+package org.garageapps.android.petsciiview;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * PETSCIIHistory
+ * <p>
+ * Undo and redo history for {@link PETSCIIView} edits. Only changed cells are stored (offset, old and new char,
+ * old and new color packed into one byte), so memory depends on the amount of changed cells and not on the screen
+ * size. All changes recorded until {@link #endStep} form one step; the oldest steps are dropped when the history
+ * exceeds its byte limit, a step exceeding the limit on its own is not recorded.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIHistory {
+
+    /**
+     * Approximate memory used by one cell change and by one step
+     */
+    private static final int CELL_BYTES = 4 + 2 + 2 + 1;
+    private static final int STEP_BYTES = 64;
+
+    /**
+     * Changes of one step
+     */
+    private static class Step {
+
+        private int[] offsets = new int[16];
+        private char[] oldChars = new char[16];
+        private char[] newChars = new char[16];
+        private byte[] colors = new byte[16];
+        private int count;
+
+        /**
+         * Record change, repeated changes of the last cell are merged <p><i>Returns true if a new cell was added</i></p>
+         */
+        private boolean add(int offset, char oldChr, int oldColor, char newChr, int newColor) {
+
+            if (count > 0 && offsets[count - 1] == offset) {
+                newChars[count - 1] = newChr;
+                colors[count - 1] = (byte) ((colors[count - 1] & 0xf0) | newColor);
+                return false;
+            }
+
+            if (count == offsets.length) {
+                resize(2 * count);
+            }
+
+            offsets[count] = offset;
+            oldChars[count] = oldChr;
+            newChars[count] = newChr;
+            colors[count] = (byte) ((oldColor << 4) | newColor);
+            count++;
+
+            return true;
+        }
+
+        /**
+         * Resize storage
+         */
+        private void resize(int size) {
+            offsets = Arrays.copyOf(offsets, size);
+            oldChars = Arrays.copyOf(oldChars, size);
+            newChars = Arrays.copyOf(newChars, size);
+            colors = Arrays.copyOf(colors, size);
+        }
+
+        /**
+         * Return approximate memory used by the step
+         */
+        private int getSizeInBytes() {
+            return STEP_BYTES + count * CELL_BYTES;
+        }
+    }
+
+    private final int maxBytes;
+    private final ArrayDeque<Step> undoSteps = new ArrayDeque<>();
+    private final ArrayDeque<Step> redoSteps = new ArrayDeque<>();
+    private Step currentStep;
+    private boolean currentStepDropped;
+    private int sizeInBytes;
+
+    /**
+     * Constructor
+     *
+     * @param maxBytes
+     *         maximal memory used by the history
+     */
+    public PETSCIIHistory(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Record a cell change <p><i>Called by the view before writing to screen or color RAM</i></p>
+     */
+    void record(int offset, char oldChr, int oldColor, char newChr, int newColor) {
+
+        if ((oldChr == newChr && oldColor == newColor) || currentStepDropped) {
+            return;
+        }
+
+        if (currentStep == null) {
+            currentStep = new Step();
+            sizeInBytes += STEP_BYTES;
+
+            // new step invalidates redo history
+            for (Step step : redoSteps) {
+                sizeInBytes -= step.getSizeInBytes();
+            }
+            redoSteps.clear();
+        }
+
+        if (currentStep.add(offset, oldChr, oldColor, newChr, newColor)) {
+            sizeInBytes += CELL_BYTES;
+            trim();
+        }
+    }
+
+    /**
+     * Finish current step <p><i>All changes made since the previous step become one undoable step</i></p>
+     */
+    public void endStep() {
+
+        currentStepDropped = false;
+
+        if (currentStep == null) {
+            return;
+        }
+
+        // trim storage to recorded changes
+        currentStep.resize(currentStep.count);
+
+        undoSteps.addLast(currentStep);
+        currentStep = null;
+    }
+
+    /**
+     * Return true if there is a step to undo
+     */
+    public boolean canUndo() {
+        return currentStep != null || !undoSteps.isEmpty();
+    }
+
+    /**
+     * Return true if there is a step to redo
+     */
+    public boolean canRedo() {
+        return currentStep == null && !redoSteps.isEmpty();
+    }
+
+    /**
+     * Return approximate memory used by the history
+     */
+    public int getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * Undo last step
+     *
+     * @param view
+     *         view the history is attached to
+     */
+    public void undo(PETSCIIView view) {
+
+        endStep();
+
+        if (undoSteps.isEmpty()) {
+            return;
+        }
+
+        Step step = undoSteps.removeLast();
+        redoSteps.addLast(step);
+
+        view.restoreCells(step.offsets, step.oldChars, step.colors, step.count, true);
+    }
+
+    /**
+     * Redo last undone step
+     *
+     * @param view
+     *         view the history is attached to
+     */
+    public void redo(PETSCIIView view) {
+
+        if (!canRedo()) {
+            return;
+        }
+
+        Step step = redoSteps.removeLast();
+        undoSteps.addLast(step);
+
+        view.restoreCells(step.offsets, step.newChars, step.colors, step.count, false);
+    }
+
+    /**
+     * Clear history
+     */
+    public void clear() {
+        undoSteps.clear();
+        redoSteps.clear();
+        currentStep = null;
+        currentStepDropped = false;
+        sizeInBytes = 0;
+    }
+
+    /**
+     * Drop oldest steps while the history exceeds its byte limit <p><i>If the current step alone exceeds it, the step is
+     * dropped too and its remaining changes are not recorded</i></p>
+     */
+    private void trim() {
+
+        while (sizeInBytes > maxBytes && !undoSteps.isEmpty()) {
+            sizeInBytes -= undoSteps.removeFirst().getSizeInBytes();
+        }
+
+        if (sizeInBytes > maxBytes && currentStep != null) {
+            sizeInBytes -= currentStep.getSizeInBytes();
+            currentStep = null;
+            currentStepDropped = true;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.garageapps.android.petsciiview;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PETSCIIImageConverter
+ * <p>
+ * Converts bitmaps into screen and color RAM. The bitmap is scaled to 8x8 pixels per cell and every pixel is
+ * quantized to the nearest {@link PETSCIIColors#C64} color. For every cell all glyphs of the character set and all
+ * foreground colors are compared against the block as 64 bit masks, the error being the number of mismatching pixels
+ * (two popcounts per candidate). Rows of cells are matched in parallel on a pool with one thread per core.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIImageConverter {
+
+    /**
+     * Quantization table resolution (5 bits per channel)
+     */
+    private static final int QUANTIZE_BITS = 5;
+
+    private static byte[] quantizeTable;
+
+    private final PETSCIICharset charset;
+    private final long[] glyphMasks;
+    private final int[] glyphCodes;
+    private ExecutorService executor;
+
+    /**
+     * Constructor
+     *
+     * @param charset
+     *         character set providing the glyphs, e.g. {@link PETSCIICharset#fromTypeface} of the view font
+     */
+    public PETSCIIImageConverter(PETSCIICharset charset) {
+
+        this.charset = charset;
+
+        // collect distinct glyphs, space first so empty blocks prefer it
+        List<Integer> codes = new ArrayList<>();
+        List<Long> masks = new ArrayList<>();
+        int space = charset.getScreenCode(' ');
+        if (space != -1) {
+            codes.add(space);
+            masks.add(charset.getGlyphMask(space));
+        }
+        for (int code = 0; code < PETSCIICharset.GLYPH_COUNT; code++) {
+            long mask = charset.getGlyphMask(code);
+            if (!masks.contains(mask)) {
+                codes.add(code);
+                masks.add(mask);
+            }
+        }
+
+        glyphMasks = new long[masks.size()];
+        glyphCodes = new int[codes.size()];
+        for (int i = 0; i < glyphMasks.length; i++) {
+            glyphMasks[i] = masks.get(i);
+            glyphCodes[i] = codes.get(i);
+        }
+    }
+
+    /**
+     * Convert bitmap using the most common color as background color
+     *
+     * @param bitmap
+     *         source bitmap (any size, scaled to the screen)
+     * @param screenWidth
+     *         screen width in cells
+     * @param screenHeight
+     *         screen height in cells
+     * @param screenRam
+     *         receives chars (screen width * screen height)
+     * @param colorRam
+     *         receives colors (screen width * screen height)
+     * @return background color or -1 if the thread was interrupted (RAM is then incomplete)
+     */
+    public int convert(Bitmap bitmap, int screenWidth, int screenHeight, char[] screenRam, int[] colorRam) {
+        return convert(bitmap, screenWidth, screenHeight, -1, screenRam, colorRam);
+    }
+
+    /**
+     * Convert bitmap using given background color
+     *
+     * @param bitmap
+     *         source bitmap (any size, scaled to the screen)
+     * @param screenWidth
+     *         screen width in cells
+     * @param screenHeight
+     *         screen height in cells
+     * @param bkgColor
+     *         background color or -1 to use the most common color
+     * @param screenRam
+     *         receives chars (screen width * screen height)
+     * @param colorRam
+     *         receives colors (screen width * screen height)
+     * @return background color or -1 if the thread was interrupted (RAM is then incomplete)
+     */
+    public int convert(Bitmap bitmap, int screenWidth, int screenHeight, int bkgColor, char[] screenRam, int[] colorRam) {
+
+        int width = screenWidth * PETSCIICharset.GLYPH_SIZE;
+        int height = screenHeight * PETSCIICharset.GLYPH_SIZE;
+
+        // scale to 8x8 pixels per cell
+        Bitmap scaled = (bitmap.getWidth() == width && bitmap.getHeight() == height) ? bitmap :
+                Bitmap.createScaledBitmap(bitmap, width, height, true);
+        int[] pixels = new int[width * height];
+        scaled.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+
+        // quantize to palette indices in parallel
+        final byte[] indices = new byte[pixels.length];
+        final int[][] histograms = new int[screenHeight][PETSCIIColors.C64.length];
+        List<Callable<Void>> tasks = new ArrayList<>(screenHeight);
+        for (int y = 0; y < screenHeight; y++) {
+            tasks.add(new QuantizeTask(pixels, indices, width * PETSCIICharset.GLYPH_SIZE * y,
+                    width * PETSCIICharset.GLYPH_SIZE, histograms[y]));
+        }
+        if (!invokeAll(tasks)) {
+            return -1;
+        }
+
+        // most common color as background
+        if (bkgColor < 0 || bkgColor >= PETSCIIColors.C64.length) {
+            int[] histogram = new int[PETSCIIColors.C64.length];
+            bkgColor = 0;
+            for (int y = 0; y < screenHeight; y++) {
+                for (int color = 0; color < histogram.length; color++) {
+                    histogram[color] += histograms[y][color];
+                    if (histogram[color] > histogram[bkgColor]) {
+                        bkgColor = color;
+                    }
+                }
+            }
+        }
+
+        // match blocks in parallel, one task per row of cells
+        tasks.clear();
+        for (int y = 0; y < screenHeight; y++) {
+            tasks.add(new MatchTask(indices, width, screenWidth, y, bkgColor, screenRam, colorRam));
+        }
+        if (!invokeAll(tasks)) {
+            return -1;
+        }
+
+        return bkgColor;
+    }
+
+    /**
+     * Convert bitmap and apply it to a view, changing its background color <p><i>Must be called on the UI thread,
+     * only changed cells are redrawn. The view is left unchanged if the thread is interrupted.</i></p>
+     */
+    public void convert(Bitmap bitmap, PETSCIIView view) {
+
+        int size = view.getScreenWidth() * view.getScreenHeight();
+        char[] screenRam = new char[size];
+        int[] colorRam = new int[size];
+
+        int bkgColor = convert(bitmap, view.getScreenWidth(), view.getScreenHeight(), screenRam, colorRam);
+        if (bkgColor == -1) {
+            return;
+        }
+
+        if (bkgColor != view.getBkgColor()) {
+            view.setBkgColor(bkgColor);
+            view.invalidate();
+        }
+        view.applyFrame(screenRam, colorRam);
+    }
+
+    /**
+     * Stop worker threads <p><i>The converter can still be used, threads are started again when needed</i></p>
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Run tasks on the pool and wait for all of them
+     *
+     * @return false if the thread was interrupted while waiting (remaining tasks are cancelled)
+     */
+    private boolean invokeAll(List<Callable<Void>> tasks) {
+
+        ExecutorService pool;
+        synchronized (this) {
+            if (executor == null) {
+                int threads = Runtime.getRuntime().availableProcessors();
+                ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>());
+                threadPool.allowCoreThreadTimeOut(true);
+                executor = threadPool;
+            }
+            pool = executor;
+        }
+
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        return true;
+    }
+
+    /**
+     * Return table from RGB (5 bits per channel) to the nearest palette index, built on first use
+     */
+    private static synchronized byte[] getQuantizeTable() {
+
+        if (quantizeTable == null) {
+
+            int[] palette = new int[PETSCIIColors.C64.length];
+            for (int i = 0; i < palette.length; i++) {
+                palette[i] = Color.parseColor(PETSCIIColors.C64[i]);
+            }
+
+            int levels = 1 << QUANTIZE_BITS;
+            byte[] table = new byte[levels * levels * levels];
+
+            for (int rgb = 0; rgb < table.length; rgb++) {
+
+                // channel centers
+                int r = ((rgb >> (2 * QUANTIZE_BITS)) << (8 - QUANTIZE_BITS)) + 4;
+                int g = (((rgb >> QUANTIZE_BITS) & (levels - 1)) << (8 - QUANTIZE_BITS)) + 4;
+                int b = ((rgb & (levels - 1)) << (8 - QUANTIZE_BITS)) + 4;
+
+                // weighted euclidean distance
+                int best = 0;
+                int bestDistance = Integer.MAX_VALUE;
+                for (int i = 0; i < palette.length; i++) {
+                    int dr = r - Color.red(palette[i]);
+                    int dg = g - Color.green(palette[i]);
+                    int db = b - Color.blue(palette[i]);
+                    int distance = 2 * dr * dr + 4 * dg * dg + 3 * db * db;
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = i;
+                    }
+                }
+
+                table[rgb] = (byte) best;
+            }
+
+            quantizeTable = table;
+        }
+
+        return quantizeTable;
+    }
+
+    /**
+     * Quantizes a band of pixels and counts colors
+     */
+    private static class QuantizeTask implements Callable<Void> {
+
+        private final int[] pixels;
+        private final byte[] indices;
+        private final int offset;
+        private final int length;
+        private final int[] histogram;
+
+        private QuantizeTask(int[] pixels, byte[] indices, int offset, int length, int[] histogram) {
+            this.pixels = pixels;
+            this.indices = indices;
+            this.offset = offset;
+            this.length = length;
+            this.histogram = histogram;
+        }
+
+        @Override
+        public Void call() {
+
+            byte[] table = getQuantizeTable();
+            int shift = 8 - QUANTIZE_BITS;
+
+            for (int i = offset; i < offset + length; i++) {
+                int pixel = pixels[i];
+                int rgb = ((((pixel >> 16) & 0xff) >> shift) << (2 * QUANTIZE_BITS)) |
+                        ((((pixel >> 8) & 0xff) >> shift) << QUANTIZE_BITS) | ((pixel & 0xff) >> shift);
+                indices[i] = table[rgb];
+                histogram[table[rgb]]++;
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Matches a row of cells against all glyphs and foreground colors
+     */
+    private class MatchTask implements Callable<Void> {
+
+        private final byte[] indices;
+        private final int width;
+        private final int screenWidth;
+        private final int y;
+        private final int bkgColor;
+        private final char[] screenRam;
+        private final int[] colorRam;
+
+        private MatchTask(byte[] indices, int width, int screenWidth, int y, int bkgColor, char[] screenRam,
+                          int[] colorRam) {
+            this.indices = indices;
+            this.width = width;
+            this.screenWidth = screenWidth;
+            this.y = y;
+            this.bkgColor = bkgColor;
+            this.screenRam = screenRam;
+            this.colorRam = colorRam;
+        }
+
+        @Override
+        public Void call() {
+
+            long[] colorMasks = new long[PETSCIIColors.C64.length];
+
+            for (int x = 0; x < screenWidth; x++) {
+
+                // masks of pixels per color, row 0 in the most significant byte like glyph masks
+                for (int color = 0; color < colorMasks.length; color++) {
+                    colorMasks[color] = 0;
+                }
+                int pixelOffset = x * PETSCIICharset.GLYPH_SIZE + y * PETSCIICharset.GLYPH_SIZE * width;
+                for (int py = 0; py < PETSCIICharset.GLYPH_SIZE; py++) {
+                    for (int px = 0; px < PETSCIICharset.GLYPH_SIZE; px++) {
+                        int bit = 63 - (py * PETSCIICharset.GLYPH_SIZE + px);
+                        colorMasks[indices[pixelOffset + px + py * width]] |= 1L << bit;
+                    }
+                }
+
+                // glyph pixels should cover the foreground color, the rest the background color
+                long bkgMask = colorMasks[bkgColor];
+                int bestError = Integer.MAX_VALUE;
+                int bestCode = glyphCodes[0];
+                int bestColor = bkgColor;
+
+                for (int color = 0; color < colorMasks.length && bestError > 0; color++) {
+
+                    long colorMask = colorMasks[color];
+                    if (colorMask == 0 && color != bkgColor) {
+                        continue;
+                    }
+
+                    for (int i = 0; i < glyphMasks.length; i++) {
+                        long glyphMask = glyphMasks[i];
+                        int error = Long.bitCount(glyphMask & ~colorMask) + Long.bitCount(~glyphMask & ~bkgMask);
+                        if (error < bestError) {
+                            bestError = error;
+                            bestCode = glyphCodes[i];
+                            bestColor = color;
+                        }
+                    }
+                }
+
+                screenRam[x + y * screenWidth] = charset.getChar(bestCode);
+                colorRam[x + y * screenWidth] = bestColor;
+            }
+
+            return null;
+        }
+    }
+}
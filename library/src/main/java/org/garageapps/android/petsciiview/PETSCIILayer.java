@@ -0,0 +1,201 @@
+package org.garageapps.android.petsciiview;
+
+import android.text.TextUtils;
+
+import java.util.Arrays;
+
+/**
+ * PETSCIILayer
+ * <p>
+ * Character layer composited over the {@link PETSCIIView} screen. A layer has its own screen and color RAM where
+ * {@link #TRANSPARENT} cells show whatever lies beneath, so removing or hiding a layer restores the underlying cells
+ * without re-printing them. Changes are tracked per layer and {@link #invalidate} redraws only the rows the layer
+ * touched since the last call.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIILayer {
+
+    public static final char TRANSPARENT = '\0';
+
+    private final PETSCIIView view;
+    private final int screenWidth;
+    private final int screenHeight;
+    private final char[] screenRam;
+    private final int[] colorRam;
+    private final int[] opaqueRowCounts;
+    private boolean visible = true;
+    private int dirtyFromY = Integer.MAX_VALUE;
+    private int dirtyToY = -1;
+
+    /**
+     * Constructor <p><i>Layers are created by {@link PETSCIIView#addLayer}</i></p>
+     */
+    PETSCIILayer(PETSCIIView view, int screenWidth, int screenHeight) {
+        this.view = view;
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        screenRam = new char[screenWidth * screenHeight];
+        colorRam = new int[screenWidth * screenHeight];
+        opaqueRowCounts = new int[screenHeight];
+    }
+
+    /**
+     * Put char at given position, {@link #TRANSPARENT} clears the cell
+     */
+    public void putChar(char chr, int x, int y) {
+
+        if (x < 0 || x >= screenWidth || y < 0 || y >= screenHeight) {
+            return;
+        }
+
+        int offset = x + y * screenWidth;
+        if (screenRam[offset] == chr) {
+            return;
+        }
+
+        // keep count of opaque cells per row
+        if (screenRam[offset] == TRANSPARENT) {
+            opaqueRowCounts[y]++;
+        } else if (chr == TRANSPARENT) {
+            opaqueRowCounts[y]--;
+        }
+
+        screenRam[offset] = chr;
+        markDirty(y);
+    }
+
+    /**
+     * Put color at given position
+     */
+    public void putColor(int color, int x, int y) {
+        if (x >= 0 && x < screenWidth && y >= 0 && y < screenHeight && color >= 0 && color < PETSCIIColors.C64.length) {
+            colorRam[x + y * screenWidth] = color;
+            markDirty(y);
+        }
+    }
+
+    /**
+     * Fill portion of the layer with given char and color
+     */
+    public void fill(char chr, int color, int fromX, int fromY, int toX, int toY) {
+        for (int y = fromY; y <= toY; y++) {
+            for (int x = fromX; x <= toX; x++) {
+                putChar(chr, x, y);
+                putColor(color, x, y);
+            }
+        }
+    }
+
+    /**
+     * Print text at given position with given color <p><i>Supports line breaks like {@link PETSCIIView#printText}</i></p>
+     */
+    public void printText(String text, int x, int y, int color) {
+
+        if (TextUtils.isEmpty(text)) {
+            return;
+        }
+
+        int lineX = x;
+
+        for (int i = 0; i < text.length(); i++) {
+            char chr = text.charAt(i);
+            if (chr == 10) {
+                x = lineX;
+                y++;
+            } else {
+                putChar(chr, x, y);
+                putColor(color, x, y);
+                x++;
+            }
+        }
+    }
+
+    /**
+     * Make whole layer transparent
+     */
+    public void clear() {
+        for (int y = 0; y < screenHeight; y++) {
+            if (opaqueRowCounts[y] > 0) {
+                Arrays.fill(screenRam, y * screenWidth, (y + 1) * screenWidth, TRANSPARENT);
+                opaqueRowCounts[y] = 0;
+                markDirty(y);
+            }
+        }
+    }
+
+    /**
+     * Show or hide layer <p><i>Redraws rows with opaque cells</i></p>
+     */
+    public void setVisible(boolean visible) {
+        if (visible != this.visible) {
+            this.visible = visible;
+            invalidateOpaqueRows();
+        }
+    }
+
+    /**
+     * Return true if layer is visible
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Redraw rows changed since the last call
+     */
+    public void invalidate() {
+        if (dirtyToY != -1) {
+            if (visible) {
+                view.invalidateRows(dirtyFromY, dirtyToY);
+            }
+            dirtyFromY = Integer.MAX_VALUE;
+            dirtyToY = -1;
+        }
+    }
+
+    /**
+     * Compose opaque cells of a row over line buffers, null colors keep the line colors
+     */
+    void composeRow(int y, char[] lineBuffer, int[] lineColors) {
+
+        if (!visible || opaqueRowCounts[y] == 0) {
+            return;
+        }
+
+        int rowOffset = y * screenWidth;
+        for (int x = 0; x < screenWidth; x++) {
+            char chr = screenRam[rowOffset + x];
+            if (chr != TRANSPARENT) {
+                lineBuffer[x] = chr;
+                if (lineColors != null) {
+                    lineColors[x] = colorRam[rowOffset + x];
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidate consecutive rows with opaque cells
+     */
+    void invalidateOpaqueRows() {
+        int fromY = -1;
+        for (int y = 0; y <= screenHeight; y++) {
+            boolean opaque = y < screenHeight && opaqueRowCounts[y] > 0;
+            if (opaque && fromY == -1) {
+                fromY = y;
+            } else if (!opaque && fromY != -1) {
+                view.invalidateRows(fromY, y - 1);
+                fromY = -1;
+            }
+        }
+    }
+
+    /**
+     * Mark row as changed
+     */
+    private void markDirty(int y) {
+        dirtyFromY = Math.min(dirtyFromY, y);
+        dirtyToY = Math.max(dirtyToY, y);
+    }
+}
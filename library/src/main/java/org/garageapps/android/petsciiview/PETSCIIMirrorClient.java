@@ -0,0 +1,274 @@
+package org.garageapps.android.petsciiview;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * PETSCIIMirrorClient
+ * <p>
+ * Receives frames published by a {@link PETSCIIMirrorServer} into its own headless screen, which can be applied to
+ * a {@link PETSCIIView} with {@link #applyTo}.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIMirrorClient {
+
+    /**
+     * PETSCIIMirrorListener <p><i>Callbacks are invoked on the client thread</i></p>
+     */
+    public interface PETSCIIMirrorListener {
+
+        /**
+         * On frame received
+         *
+         * @param client
+         *         client which received the frame
+         */
+        void onFrame(PETSCIIMirrorClient client);
+
+        /**
+         * On disconnected
+         *
+         * @param client
+         *         client which lost connection
+         */
+        void onDisconnected(PETSCIIMirrorClient client);
+    }
+
+    private final String host;
+    private final int port;
+    private PETSCIIMirrorListener listener;
+    private SocketChannel channel;
+    private volatile boolean running;
+
+    /**
+     * Headless screen (guarded by this)
+     */
+    private int screenWidth;
+    private int screenHeight;
+    private char[] screenRam = new char[0];
+    private int[] colorRam = new int[0];
+    private int borderColor;
+    private int backgroundColor;
+
+    /**
+     * Constructor
+     *
+     * @param host
+     *         server host
+     * @param port
+     *         server port
+     */
+    public PETSCIIMirrorClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Set callback listener
+     */
+    public void setListener(PETSCIIMirrorListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Connect to server and start receiving frames
+     *
+     * @throws IOException
+     *         if the connection cannot be established
+     */
+    public void connect() throws IOException {
+
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        running = true;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "PETSCIIMirrorClient").start();
+    }
+
+    /**
+     * Disconnect from server
+     */
+    public void disconnect() {
+        running = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Receive loop
+     */
+    private void receive() {
+
+        ByteBuffer header = ByteBuffer.allocate(PETSCIIMirrorProtocol.HEADER_SIZE);
+        ByteBuffer message = ByteBuffer.allocate(4096);
+
+        try {
+            while (running) {
+
+                // read message length
+                header.clear();
+                readFully(header);
+                int length = header.getInt(0);
+                if (length <= 0 || length > PETSCIIMirrorProtocol.MAX_MESSAGE_SIZE) {
+                    throw new IOException("Invalid message length " + length);
+                }
+
+                // read message
+                if (message.capacity() < length) {
+                    message = ByteBuffer.allocate(Math.max(length, 2 * message.capacity()));
+                }
+                message.clear();
+                message.limit(length);
+                readFully(message);
+                message.flip();
+
+                decode(message);
+
+                if (listener != null) {
+                    listener.onFrame(this);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // connection closed or malformed message
+        } finally {
+            running = false;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            if (listener != null) {
+                listener.onDisconnected(this);
+            }
+        }
+    }
+
+    /**
+     * Read until buffer is full
+     */
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                throw new IOException("Connection closed");
+            }
+        }
+    }
+
+    /**
+     * Apply message to headless screen <p><i>Screen sizes are checked before allocating, a full frame of the screen must
+     * fit into one message</i></p>
+     */
+    private synchronized void decode(ByteBuffer message) throws IOException {
+
+        int flags = message.get() & 0xff;
+
+        if ((flags & PETSCIIMirrorProtocol.FLAG_SIZE) != 0) {
+            int width = PETSCIIMirrorProtocol.getVarInt(message);
+            int height = PETSCIIMirrorProtocol.getVarInt(message);
+            if (width <= 0 || height <= 0 || (long) width * height > PETSCIIMirrorProtocol.MAX_MESSAGE_SIZE) {
+                throw new IOException("Invalid screen size " + width + "x" + height);
+            }
+            screenWidth = width;
+            screenHeight = height;
+            screenRam = new char[screenWidth * screenHeight];
+            colorRam = new int[screenWidth * screenHeight];
+        }
+
+        if ((flags & PETSCIIMirrorProtocol.FLAG_COLORS) != 0) {
+            borderColor = message.get() & 0x0f;
+            backgroundColor = message.get() & 0x0f;
+        }
+
+        int spanCount = PETSCIIMirrorProtocol.getVarInt(message);
+        int offset = 0;
+
+        for (int i = 0; i < spanCount; i++) {
+            offset += PETSCIIMirrorProtocol.getVarInt(message);
+            int length = PETSCIIMirrorProtocol.getVarInt(message);
+            PETSCIIMirrorProtocol.getSpan(message, screenRam, colorRam, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Apply received screen to a view, writing only changed cells <p><i>Must be called on the UI thread</i></p>
+     *
+     * @param view
+     *         target view
+     */
+    public synchronized void applyTo(PETSCIIView view) {
+
+        if (screenRam.length == 0) {
+            return;
+        }
+
+        if (view.getScreenWidth() != screenWidth) {
+            view.setScreenWidth(screenWidth);
+        }
+        if (view.getScreenHeight() != screenHeight) {
+            view.setScreenHeight(screenHeight);
+        }
+
+        if (view.getBorderColor() != borderColor || view.getBkgColor() != backgroundColor) {
+            view.setBorderColor(borderColor);
+            view.setBkgColor(backgroundColor);
+            view.invalidate();
+        }
+
+        view.applyFrame(screenRam, colorRam);
+    }
+
+    // headless screen
+
+    /**
+     * Return screen width
+     */
+    public synchronized int getScreenWidth() {
+        return screenWidth;
+    }
+
+    /**
+     * Return screen height
+     */
+    public synchronized int getScreenHeight() {
+        return screenHeight;
+    }
+
+    /**
+     * Return border color
+     */
+    public synchronized int getBorderColor() {
+        return borderColor;
+    }
+
+    /**
+     * Return background color
+     */
+    public synchronized int getBkgColor() {
+        return backgroundColor;
+    }
+
+    /**
+     * Return char at given position
+     */
+    public synchronized char getChar(int x, int y) {
+        return screenRam[x + y * screenWidth];
+    }
+
+    /**
+     * Return color at given position
+     */
+    public synchronized int getColor(int x, int y) {
+        return colorRam[x + y * screenWidth];
+    }
+}
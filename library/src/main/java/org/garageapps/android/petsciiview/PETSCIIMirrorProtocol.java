@@ -0,0 +1,123 @@
+package org.garageapps.android.petsciiview;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PETSCIIMirrorProtocol
+ * <p>
+ * Binary delta protocol shared by {@link PETSCIIMirrorServer} and {@link PETSCIIMirrorClient}. Every message
+ * describes one published frame:
+ * <pre>
+ * int32    message length (excluding this field)
+ * u8       flags
+ * varint   screen width, varint screen height        (FLAG_SIZE only)
+ * u8       border color, u8 background color          (FLAG_COLORS only)
+ * varint   span count
+ * spans    varint gap from previous span end, varint length,
+ *          length * u16 chars, (length + 1) / 2 bytes of colors (two per byte, low nibble first)
+ * </pre>
+ */
+final class PETSCIIMirrorProtocol {
+
+    static final int FLAG_SIZE = 0x01;
+    static final int FLAG_COLORS = 0x02;
+
+    static final int HEADER_SIZE = 4;
+    static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    private PETSCIIMirrorProtocol() {
+    }
+
+    /**
+     * Return buffer with at least given remaining space, keeping its content
+     */
+    static ByteBuffer ensureRemaining(ByteBuffer buffer, int remaining) {
+
+        if (buffer.remaining() >= remaining) {
+            return buffer;
+        }
+
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + remaining));
+        buffer.flip();
+        newBuffer.put(buffer);
+
+        return newBuffer;
+    }
+
+    /**
+     * Write variable length unsigned int (7 bits per byte)
+     */
+    static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Read variable length unsigned int (7 bits per byte)
+     */
+    static int getVarInt(ByteBuffer buffer) {
+
+        int value = 0;
+        int shift = 0;
+
+        while (true) {
+            int b = buffer.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new IllegalStateException("Malformed varint");
+            }
+        }
+    }
+
+    /**
+     * Write span data (chars and packed colors) and return buffer which may have been grown
+     */
+    static ByteBuffer putSpan(ByteBuffer buffer, int gap, char[] screenRam, int[] colorRam, int offset, int length) {
+
+        buffer = ensureRemaining(buffer, 10 + 2 * length + (length + 1) / 2);
+
+        putVarInt(buffer, gap);
+        putVarInt(buffer, length);
+
+        for (int i = offset; i < offset + length; i++) {
+            buffer.putChar(screenRam[i]);
+        }
+
+        for (int i = offset; i < offset + length; i += 2) {
+            int low = colorRam[i] & 0x0f;
+            int high = (i + 1 < offset + length) ? colorRam[i + 1] & 0x0f : 0;
+            buffer.put((byte) (low | (high << 4)));
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Read span data into screen and color RAM
+     */
+    static void getSpan(ByteBuffer buffer, char[] screenRam, int[] colorRam, int offset, int length) {
+
+        if (offset < 0 || offset + length > screenRam.length) {
+            throw new IllegalStateException("Span out of screen bounds");
+        }
+
+        for (int i = offset; i < offset + length; i++) {
+            screenRam[i] = buffer.getChar();
+        }
+
+        for (int i = offset; i < offset + length; i += 2) {
+            int colors = buffer.get() & 0xff;
+            colorRam[i] = colors & 0x0f;
+            if (i + 1 < offset + length) {
+                colorRam[i + 1] = colors >> 4;
+            }
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package org.garageapps.android.petsciiview;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * PETSCIIMirrorServer
+ * <p>
+ * Streams changes of a {@link PETSCIIView} to any number of {@link PETSCIIMirrorClient} viewers using
+ * {@link PETSCIIMirrorProtocol}. Changes are batched per frame: {@link #publish} must be called on the UI thread
+ * whenever a frame is ready (usually next to {@link PETSCIIView#invalidate}). New viewers and viewers which fell
+ * behind don't wait for the next frame, a full frame is published for them through {@link PETSCIIView#post}. All
+ * socket I/O runs non-blocking on a single selector thread.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIMirrorServer {
+
+    /**
+     * Viewers with more pending bytes are considered too slow and get resynchronized with a full frame
+     */
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+    /**
+     * Connected viewer (accessed only from selector thread)
+     */
+    private static class Client {
+
+        private final SocketChannel channel;
+        private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        private int pendingBytes;
+        private boolean ready;
+
+        private Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final PETSCIIView view;
+    private final int port;
+
+    /**
+     * Publisher members (UI thread)
+     */
+    private final PETSCIIScreenDiff diff = new PETSCIIScreenDiff();
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(4096);
+    private char[] shadowScreenRam;
+    private int[] shadowColorRam;
+    private int shadowWidth;
+    private int shadowHeight;
+    private int shadowBorderColor = -1;
+    private int shadowBkgColor = -1;
+
+    /**
+     * Shared members
+     */
+    private final ConcurrentLinkedQueue<ByteBuffer[]> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean fullFrameRequested = new AtomicBoolean();
+    private volatile boolean running;
+    private final Runnable publishRunnable = new Runnable() {
+        @Override
+        public void run() {
+            publish();
+        }
+    };
+
+    /**
+     * Selector members (selector thread)
+     */
+    private final List<Client> clients = new ArrayList<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(256);
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Constructor
+     *
+     * @param view
+     *         view to mirror
+     * @param port
+     *         port to listen on (0 for any free port)
+     */
+    public PETSCIIMirrorServer(PETSCIIView view, int port) {
+        this.view = view;
+        this.port = port;
+    }
+
+    /**
+     * Start listening for viewers
+     *
+     * @throws IOException
+     *         if the server socket cannot be opened
+     */
+    public void start() throws IOException {
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runSelector();
+            }
+        }, "PETSCIIMirrorServer").start();
+    }
+
+    /**
+     * Stop server and disconnect all viewers
+     */
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Return port the server is listening on
+     */
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    /**
+     * Publish changes made to the view since the last call <p><i>Must be called on the UI thread</i></p>
+     */
+    public void publish() {
+
+        if (!running) {
+            return;
+        }
+
+        int width = view.getScreenWidth();
+        int height = view.getScreenHeight();
+        char[] screenRam = view.getScreenRam();
+        int[] colorRam = view.getColorRam();
+        int flags = 0;
+
+        // screen size changed, start from an empty shadow screen like the viewers do
+        if (shadowScreenRam == null || width != shadowWidth || height != shadowHeight) {
+            shadowScreenRam = new char[width * height];
+            shadowColorRam = new int[width * height];
+            shadowWidth = width;
+            shadowHeight = height;
+            flags |= PETSCIIMirrorProtocol.FLAG_SIZE;
+        }
+
+        // border or background color changed
+        if (view.getBorderColor() != shadowBorderColor || view.getBkgColor() != shadowBkgColor) {
+            shadowBorderColor = view.getBorderColor();
+            shadowBkgColor = view.getBkgColor();
+            flags |= PETSCIIMirrorProtocol.FLAG_COLORS;
+        }
+
+        diff.compute(shadowScreenRam, shadowColorRam, screenRam, colorRam, width, height);
+
+        // delta for viewers which are already in sync
+        ByteBuffer delta = null;
+        if (flags != 0 || !diff.isEmpty()) {
+            delta = encodeDelta(flags, screenRam, colorRam);
+        }
+
+        // full frame for new or resynchronized viewers
+        ByteBuffer full = null;
+        if (fullFrameRequested.getAndSet(false)) {
+            full = encodeFull();
+        }
+
+        if (delta != null || full != null) {
+            frames.add(new ByteBuffer[]{delta, full});
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Encode changed spans and copy them to the shadow screen
+     */
+    private ByteBuffer encodeDelta(int flags, char[] screenRam, int[] colorRam) {
+
+        beginMessage(flags);
+
+        PETSCIIMirrorProtocol.putVarInt(encodeBuffer, diff.getSpanCount());
+
+        int lastEnd = 0;
+        for (int i = 0; i < diff.getSpanCount(); i++) {
+
+            int offset = diff.getSpanOffset(i);
+            int length = diff.getSpanLength(i);
+
+            encodeBuffer = PETSCIIMirrorProtocol.putSpan(encodeBuffer, offset - lastEnd, screenRam, colorRam, offset, length);
+            lastEnd = offset + length;
+
+            System.arraycopy(screenRam, offset, shadowScreenRam, offset, length);
+            System.arraycopy(colorRam, offset, shadowColorRam, offset, length);
+        }
+
+        return endMessage();
+    }
+
+    /**
+     * Encode complete shadow screen
+     */
+    private ByteBuffer encodeFull() {
+
+        beginMessage(PETSCIIMirrorProtocol.FLAG_SIZE | PETSCIIMirrorProtocol.FLAG_COLORS);
+
+        PETSCIIMirrorProtocol.putVarInt(encodeBuffer, 1);
+        encodeBuffer = PETSCIIMirrorProtocol.putSpan(encodeBuffer, 0, shadowScreenRam, shadowColorRam, 0, shadowScreenRam.length);
+
+        return endMessage();
+    }
+
+    /**
+     * Start message with header fields
+     */
+    private void beginMessage(int flags) {
+
+        encodeBuffer.clear();
+        encodeBuffer.position(PETSCIIMirrorProtocol.HEADER_SIZE);
+        encodeBuffer.put((byte) flags);
+
+        if ((flags & PETSCIIMirrorProtocol.FLAG_SIZE) != 0) {
+            PETSCIIMirrorProtocol.putVarInt(encodeBuffer, shadowWidth);
+            PETSCIIMirrorProtocol.putVarInt(encodeBuffer, shadowHeight);
+        }
+
+        if ((flags & PETSCIIMirrorProtocol.FLAG_COLORS) != 0) {
+            encodeBuffer.put((byte) shadowBorderColor);
+            encodeBuffer.put((byte) shadowBkgColor);
+        }
+    }
+
+    /**
+     * Finish message and return its own copy ready for sending
+     */
+    private ByteBuffer endMessage() {
+
+        encodeBuffer.putInt(0, encodeBuffer.position() - PETSCIIMirrorProtocol.HEADER_SIZE);
+        encodeBuffer.flip();
+
+        ByteBuffer message = ByteBuffer.allocate(encodeBuffer.remaining());
+        message.put(encodeBuffer);
+        message.flip();
+
+        return message;
+    }
+
+    /****************************************************************************************************
+     * SELECTOR THREAD
+     ***************************************************************************************************/
+
+    /**
+     * Selector loop
+     */
+    private void runSelector() {
+
+        try {
+            while (running) {
+
+                selector.select();
+
+                // hand published frames to viewers
+                ByteBuffer[] frame;
+                while ((frame = frames.poll()) != null) {
+                    dispatchFrame(frame[0], frame[1]);
+                }
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        acceptClient();
+                    } else {
+                        Client client = (Client) key.attachment();
+                        if (key.isReadable()) {
+                            readClient(client);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            writeClient(client);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            running = false;
+        } finally {
+            for (Client client : new ArrayList<>(clients)) {
+                closeClient(client);
+            }
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Accept new viewer and request a full frame for it
+     */
+    private void acceptClient() throws IOException {
+
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        Client client = new Client(channel);
+        channel.register(selector, SelectionKey.OP_READ, client);
+        clients.add(client);
+
+        requestFullFrame();
+    }
+
+    /**
+     * Request full frame for waiting viewers and publish it on the UI thread
+     */
+    private void requestFullFrame() {
+        fullFrameRequested.set(true);
+        view.post(publishRunnable);
+    }
+
+    /**
+     * Viewers never send data, reading only detects disconnects
+     */
+    private void readClient(Client client) {
+        try {
+            readBuffer.clear();
+            if (client.channel.read(readBuffer) == -1) {
+                closeClient(client);
+            }
+        } catch (IOException e) {
+            closeClient(client);
+        }
+    }
+
+    /**
+     * Queue frame for every viewer, synchronized viewers get the delta and waiting viewers the full frame
+     */
+    private void dispatchFrame(ByteBuffer delta, ByteBuffer full) {
+
+        for (Client client : new ArrayList<>(clients)) {
+
+            if (client.ready && delta != null) {
+                queueMessage(client, delta.duplicate());
+            } else if (!client.ready && full != null) {
+                queueMessage(client, full.duplicate());
+                client.ready = true;
+            } else {
+                continue;
+            }
+
+            writeClient(client);
+        }
+    }
+
+    /**
+     * Queue message, slow viewers drop their backlog and wait for a full frame
+     */
+    private void queueMessage(Client client, ByteBuffer message) {
+
+        if (client.pendingBytes + message.remaining() > MAX_PENDING_BYTES) {
+
+            // keep partially written message to preserve stream framing
+            ByteBuffer head = client.queue.peekFirst();
+            client.queue.clear();
+            client.pendingBytes = 0;
+            if (head != null && head.position() > 0) {
+                client.queue.add(head);
+                client.pendingBytes = head.remaining();
+            }
+
+            if (client.ready) {
+                client.ready = false;
+                requestFullFrame();
+                return;
+            }
+        }
+
+        client.queue.add(message);
+        client.pendingBytes += message.remaining();
+    }
+
+    /**
+     * Write as much of the queue as the socket accepts
+     */
+    private void writeClient(Client client) {
+
+        try {
+            while (!client.queue.isEmpty()) {
+                ByteBuffer message = client.queue.peekFirst();
+                client.pendingBytes -= client.channel.write(message);
+                if (message.hasRemaining()) {
+                    break;
+                }
+                client.queue.pollFirst();
+            }
+
+            // wait for socket to become writable only while there is something left
+            SelectionKey key = client.channel.keyFor(selector);
+            if (key != null && key.isValid()) {
+                key.interestOps(client.queue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            closeClient(client);
+        }
+    }
+
+    /**
+     * Close viewer connection
+     */
+    private void closeClient(Client client) {
+        clients.remove(client);
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Close selector and server socket
+     */
+    private void closeQuietly() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package org.garageapps.android.petsciiview;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * PETSCIIPlayer
+ * <p>
+ * Replays an event log written by {@link PETSCIIRecorder} into a {@link PETSCIIView}, at the original speed or
+ * faster. Events are applied in batches, all events due in a frame are applied before the view is invalidated once.
+ * {@link #applyUntil} replays without timer, e.g. to step through a log or to benchmark the view with a recorded
+ * workload.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIPlayer {
+
+    /**
+     * PETSCIIPlayerListener
+     */
+    public interface PETSCIIPlayerListener {
+
+        /**
+         * On all events replayed
+         *
+         * @param player
+         *         player which finished
+         */
+        void onFinished(PETSCIIPlayer player);
+    }
+
+    /**
+     * Frame interval in milliseconds
+     */
+    private static final int FRAME_INTERVAL = 16;
+
+    private final byte[] data;
+    private final int headerLength;
+    private int position;
+    private long time;
+    private int lastOffset;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private PETSCIIPlayerListener listener;
+    private PETSCIIView view;
+    private float speed;
+    private long startTime;
+    private boolean playing;
+
+    private final Runnable frameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            playFrame();
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param log
+     *         event log from {@link PETSCIIRecorder#toByteArray}
+     */
+    public PETSCIIPlayer(byte[] log) {
+
+        data = log;
+        position = 0;
+
+        if (data.length < 5 || readInt() != PETSCIIRecorder.MAGIC || readByte() != PETSCIIRecorder.VERSION) {
+            throw new IllegalArgumentException("Not a PETSCII recording");
+        }
+
+        headerLength = position;
+        rewind();
+    }
+
+    /**
+     * Set callback listener
+     */
+    public void setListener(PETSCIIPlayerListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Return true while playing
+     */
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * Return recording time of the last applied event in milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Replay log from the start <p><i>Must be called on the UI thread</i></p>
+     *
+     * @param view
+     *         target view
+     * @param speed
+     *         speed factor, 1 is the original speed
+     */
+    public void play(PETSCIIView view, float speed) {
+
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Speed must be positive");
+        }
+
+        stop();
+        rewind();
+
+        this.view = view;
+        this.speed = speed;
+        startTime = SystemClock.uptimeMillis();
+        playing = true;
+
+        playFrame();
+    }
+
+    /**
+     * Stop playing
+     */
+    public void stop() {
+        handler.removeCallbacks(frameRunnable);
+        playing = false;
+        view = null;
+    }
+
+    /**
+     * Move to the start of the log
+     */
+    public void rewind() {
+        position = headerLength;
+        time = 0;
+        lastOffset = -1;
+    }
+
+    /**
+     * Apply events recorded up to given time and invalidate the view once <p><i>Must be called on the UI thread</i></p>
+     *
+     * @param view
+     *         target view
+     * @param untilTime
+     *         recording time in milliseconds
+     * @return true if events are left
+     */
+    public boolean applyUntil(PETSCIIView view, long untilTime) {
+
+        boolean applied = false;
+
+        while (position < data.length) {
+
+            // peek event time
+            int eventPosition = position;
+            int op = readByte();
+            long eventTime = time + readVarInt();
+            if (eventTime > untilTime) {
+                position = eventPosition;
+                break;
+            }
+
+            time = eventTime;
+            applyEvent(view, op);
+            applied = true;
+        }
+
+        if (applied) {
+            view.invalidate();
+        }
+
+        return position < data.length;
+    }
+
+    /**
+     * Apply events due in this frame and schedule the next one
+     */
+    private void playFrame() {
+
+        if (!playing) {
+            return;
+        }
+
+        long elapsed = (long) ((SystemClock.uptimeMillis() - startTime) * speed);
+
+        if (applyUntil(view, elapsed)) {
+            handler.postDelayed(frameRunnable, FRAME_INTERVAL);
+        } else {
+            stop();
+            if (listener != null) {
+                listener.onFinished(this);
+            }
+        }
+    }
+
+    /**
+     * Apply a single event
+     */
+    private void applyEvent(PETSCIIView view, int op) {
+
+        switch (op) {
+
+            case PETSCIIRecorder.OP_SCREEN_SIZE: {
+                int width = readVarInt();
+                int height = readVarInt();
+                if (width != view.getScreenWidth()) {
+                    view.setScreenWidth(width);
+                }
+                if (height != view.getScreenHeight()) {
+                    view.setScreenHeight(height);
+                }
+                break;
+            }
+
+            case PETSCIIRecorder.OP_CHAR: {
+                int offset = readOffset();
+                view.putChar((char) readVarInt(), offset);
+                break;
+            }
+
+            case PETSCIIRecorder.OP_COLOR: {
+                int offset = readOffset();
+                view.putColor(readVarInt(), offset);
+                break;
+            }
+
+            case PETSCIIRecorder.OP_FLASH: {
+                int offset = readOffset();
+                view.putFlash(readVarInt() != 0, offset);
+                break;
+            }
+
+            case PETSCIIRecorder.OP_PRINT: {
+                char[] chars = new char[readVarInt()];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) readVarInt();
+                }
+                view.printTranslated(new String(chars));
+                break;
+            }
+
+            case PETSCIIRecorder.OP_NEW_LINE:
+                view.println(null);
+                break;
+
+            case PETSCIIRecorder.OP_BORDER_COLOR:
+                readVarInt();
+                view.setBorderColor(readVarInt());
+                break;
+
+            case PETSCIIRecorder.OP_BKG_COLOR: {
+                int register = readVarInt();
+                view.setExtendedBkgColor(register, readVarInt());
+                break;
+            }
+
+            case PETSCIIRecorder.OP_CURSOR_COLOR:
+                readVarInt();
+                view.setCursorColor(readVarInt());
+                break;
+
+            case PETSCIIRecorder.OP_CURSOR_POSITION: {
+                int x = readVarInt();
+                view.setCursorPosition(x, readVarInt());
+                break;
+            }
+
+            case PETSCIIRecorder.OP_TEXT_WINDOW: {
+                int fromX = readVarInt();
+                int fromY = readVarInt();
+                int toX = readVarInt();
+                view.setTextWindow(fromX, fromY, toX, readVarInt());
+                break;
+            }
+
+            case PETSCIIRecorder.OP_CHAR_MODE:
+                view.setCharMode(readVarInt());
+                break;
+
+            case PETSCIIRecorder.OP_RASTER_BORDER_COLOR: {
+                int y = readVarInt();
+                view.setRasterBorderColor(y, readVarInt() - 1);
+                break;
+            }
+
+            case PETSCIIRecorder.OP_RASTER_BKG_COLOR: {
+                int y = readVarInt();
+                view.setRasterBkgColor(y, readVarInt() - 1);
+                break;
+            }
+
+            case PETSCIIRecorder.OP_CLEAR_RASTER_COLORS:
+                view.clearRasterColors();
+                break;
+
+            default:
+                throw new IllegalStateException("Unknown event " + op);
+        }
+    }
+
+    /**
+     * Read offset relative to the cell after the previous one
+     */
+    private int readOffset() {
+        int zigzag = readVarInt();
+        lastOffset += 1 + ((zigzag >>> 1) ^ -(zigzag & 1));
+        return lastOffset;
+    }
+
+    /**
+     * Read unsigned integer stored in 7 bit groups
+     */
+    private int readVarInt() {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = readByte();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Read big endian integer
+     */
+    private int readInt() {
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    /**
+     * Read unsigned byte
+     */
+    private int readByte() {
+        return data[position++] & 0xff;
+    }
+}
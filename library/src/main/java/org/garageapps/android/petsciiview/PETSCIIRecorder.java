@@ -0,0 +1,244 @@
+package org.garageapps.android.petsciiview;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+/**
+ * PETSCIIRecorder
+ * <p>
+ * Records every change made to a {@link PETSCIIView} (cells, flash attributes, printed text, colors, character mode,
+ * raster colors, text window and cursor) into a compact binary event log which {@link PETSCIIPlayer} replays.
+ * Attaching the recorder writes the current screen first, so a log always starts from a known state.
+ * <p>
+ * Every event is an opcode byte, the time since the previous event in milliseconds and its arguments, all numbers as
+ * variable length integers. Cell offsets are stored relative to the previous cell, so a char or color written next to
+ * the previous one usually takes four bytes.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIRecorder {
+
+    /**
+     * Log header
+     */
+    static final int MAGIC = 0x50455452;
+    static final int VERSION = 2;
+
+    /**
+     * Event opcodes
+     */
+    static final int OP_SCREEN_SIZE = 0;
+    static final int OP_CHAR = 1;
+    static final int OP_COLOR = 2;
+    static final int OP_FLASH = 3;
+    static final int OP_PRINT = 4;
+    static final int OP_NEW_LINE = 5;
+    static final int OP_BORDER_COLOR = 6;
+    static final int OP_BKG_COLOR = 7;
+    static final int OP_CURSOR_COLOR = 8;
+    static final int OP_CURSOR_POSITION = 9;
+    static final int OP_CHAR_MODE = 10;
+    static final int OP_RASTER_BORDER_COLOR = 11;
+    static final int OP_RASTER_BKG_COLOR = 12;
+    static final int OP_CLEAR_RASTER_COLORS = 13;
+    static final int OP_TEXT_WINDOW = 14;
+
+    private byte[] data = new byte[4096];
+    private int length;
+    private int eventCount;
+    private long lastTime;
+    private int lastOffset = -1;
+
+    /**
+     * Return number of recorded events
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Return size of the log
+     */
+    public int getSizeInBytes() {
+        return length;
+    }
+
+    /**
+     * Return copy of the log
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    /**
+     * Start a new log <p><i>Called by the view when the recorder is attached</i></p>
+     */
+    void begin() {
+        length = 0;
+        eventCount = 0;
+        lastTime = SystemClock.uptimeMillis();
+        lastOffset = -1;
+        writeInt(MAGIC);
+        writeByte(VERSION);
+    }
+
+    /**
+     * Record screen size
+     */
+    void recordScreenSize(int width, int height) {
+        writeEvent(OP_SCREEN_SIZE);
+        writeVarInt(width);
+        writeVarInt(height);
+    }
+
+    /**
+     * Record char put at given offset
+     */
+    void recordChar(int offset, char chr) {
+        writeEvent(OP_CHAR);
+        writeOffset(offset);
+        writeVarInt(chr);
+    }
+
+    /**
+     * Record color put at given offset
+     */
+    void recordColor(int offset, int color) {
+        writeEvent(OP_COLOR);
+        writeOffset(offset);
+        writeVarInt(color);
+    }
+
+    /**
+     * Record flash attribute put at given offset
+     */
+    void recordFlash(int offset, boolean flash) {
+        writeEvent(OP_FLASH);
+        writeOffset(offset);
+        writeVarInt(flash ? 1 : 0);
+    }
+
+    /**
+     * Record text printed at cursor position, translated with given table (may be null) as it is written to the screen
+     */
+    void recordPrint(String text, char[] table) {
+        writeEvent(OP_PRINT);
+        writeVarInt(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char chr = text.charAt(i);
+            writeVarInt((table != null) ? table[chr] : chr);
+        }
+    }
+
+    /**
+     * Record cursor moved to the next line
+     */
+    void recordNewLine() {
+        writeEvent(OP_NEW_LINE);
+    }
+
+    /**
+     * Record a color change (border, background register or cursor color)
+     */
+    void recordColorChange(int op, int register, int color) {
+        writeEvent(op);
+        writeVarInt(register);
+        writeVarInt(color);
+    }
+
+    /**
+     * Record cursor position
+     */
+    void recordCursorPosition(int x, int y) {
+        writeEvent(OP_CURSOR_POSITION);
+        writeVarInt(x);
+        writeVarInt(y);
+    }
+
+    /**
+     * Record text window
+     */
+    void recordTextWindow(int fromX, int fromY, int toX, int toY) {
+        writeEvent(OP_TEXT_WINDOW);
+        writeVarInt(fromX);
+        writeVarInt(fromY);
+        writeVarInt(toX);
+        writeVarInt(toY);
+    }
+
+    /**
+     * Record character mode
+     */
+    void recordCharMode(int mode) {
+        writeEvent(OP_CHAR_MODE);
+        writeVarInt(mode);
+    }
+
+    /**
+     * Record raster color of a row (-1 restores the global color)
+     */
+    void recordRasterColor(int op, int y, int color) {
+        writeEvent(op);
+        writeVarInt(y);
+        writeVarInt(color + 1);
+    }
+
+    /**
+     * Record restored global colors on all rows
+     */
+    void recordClearRasterColors() {
+        writeEvent(OP_CLEAR_RASTER_COLORS);
+    }
+
+    /**
+     * Write opcode and time since the previous event
+     */
+    private void writeEvent(int op) {
+        long time = SystemClock.uptimeMillis();
+        writeByte(op);
+        writeVarInt((int) Math.min(time - lastTime, Integer.MAX_VALUE));
+        lastTime = time;
+        eventCount++;
+    }
+
+    /**
+     * Write offset relative to the cell after the previous one (zigzag encoded)
+     */
+    private void writeOffset(int offset) {
+        int delta = offset - (lastOffset + 1);
+        writeVarInt((delta << 1) ^ (delta >> 31));
+        lastOffset = offset;
+    }
+
+    /**
+     * Write unsigned integer in 7 bit groups, lowest group first
+     */
+    private void writeVarInt(int value) {
+        while ((value & ~0x7f) != 0) {
+            writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+
+    /**
+     * Write big endian integer
+     */
+    private void writeInt(int value) {
+        writeByte(value >>> 24);
+        writeByte(value >>> 16);
+        writeByte(value >>> 8);
+        writeByte(value);
+    }
+
+    /**
+     * Write byte, growing the log if needed
+     */
+    private void writeByte(int value) {
+        if (length == data.length) {
+            data = Arrays.copyOf(data, 2 * length);
+        }
+        data[length++] = (byte) value;
+    }
+}
@@ -0,0 +1,39 @@
+package org.garageapps.android.petsciiview;
+
+/**
+ * PETSCIIScreen
+ * <p>
+ * Writable screen shared by {@link PETSCIIView} and {@link PETSCIIScreenBuffer}, used by {@link PETSCIIFormatter}
+ */
+interface PETSCIIScreen {
+
+    /**
+     * Return screen width
+     */
+    int getScreenWidth();
+
+    /**
+     * Put char to screen RAM at given offset
+     */
+    void putChar(char chr, int offset);
+
+    /**
+     * Put color to color RAM at given offset
+     */
+    void putColor(int color, int offset);
+
+    /**
+     * Fill screen RAM with given char
+     */
+    void fillWithChar(char chr);
+
+    /**
+     * Return char translated for the screen's character set, or the same char if translation is disabled
+     */
+    char translateChar(char chr);
+
+    /**
+     * Print text to screen at given position with given color
+     */
+    void printText(String text, int x, int y, int color);
+}
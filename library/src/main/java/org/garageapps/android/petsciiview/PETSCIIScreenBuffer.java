@@ -0,0 +1,301 @@
+package org.garageapps.android.petsciiview;
+
+import android.text.TextUtils;
+
+import java.util.Arrays;
+
+/**
+ * PETSCIIScreenBuffer
+ * <p>
+ * Off-screen screen and color RAM with the text API of {@link PETSCIIView}. A buffer can be filled on any thread
+ * (formatting and layout included) and then handed to {@link PETSCIIView#commitBuffer}, which swaps it with the
+ * displayed screen on the UI thread. After the commit the buffer holds the previously displayed screen, so two buffers
+ * are never needed: the same buffer serves as the back buffer for the next frame.
+ * <p>
+ * A buffer must be used by one thread at a time and must not be modified while {@link #isCommitPending} returns true.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIScreenBuffer implements PETSCIIScreen {
+
+    private final int screenWidth;
+    private final int screenHeight;
+    private char[] screenRam;
+    private int[] colorRam;
+    private volatile boolean commitPending;
+    private char[] translationTable;
+
+    /**
+     * Constructor <p><i>Buffer is cleared with spaces in light blue</i></p>
+     *
+     * @param screenWidth
+     *         screen width (must match the view)
+     * @param screenHeight
+     *         screen height (must match the view)
+     */
+    public PETSCIIScreenBuffer(int screenWidth, int screenHeight) {
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        screenRam = new char[screenWidth * screenHeight];
+        colorRam = new int[screenWidth * screenHeight];
+        Arrays.fill(screenRam, ' ');
+        Arrays.fill(colorRam, 14);
+    }
+
+    /**
+     * Return screen width
+     */
+    @Override
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+
+    /**
+     * Return screen height
+     */
+    public int getScreenHeight() {
+        return screenHeight;
+    }
+
+    /**
+     * Return char at given position or 0 if the position is out of bounds
+     */
+    public char getChar(int x, int y) {
+        return validPosition(x, y) ? screenRam[x + y * screenWidth] : 0;
+    }
+
+    /**
+     * Return color at given position or -1 if the position is out of bounds
+     */
+    public int getColor(int x, int y) {
+        return validPosition(x, y) ? colorRam[x + y * screenWidth] : -1;
+    }
+
+    /**
+     * Return true while the buffer waits to be swapped with the view's screen
+     */
+    public boolean isCommitPending() {
+        return commitPending;
+    }
+
+    /**
+     * Translate text printed with printText and printFormattedText into given character set <p><i>See
+     * {@link PETSCIIChars#translate}</i></p>
+     *
+     * @param charset
+     *         {@link PETSCIIChars#UPPERCASE}, {@link PETSCIIChars#LOWERCASE} or null to disable translation
+     */
+    public void setTextTranslation(char[] charset) {
+        translationTable = (charset != null) ? PETSCIIChars.getTranslationTable(charset) : null;
+    }
+
+    /**
+     * Return char translated for the text translation set
+     */
+    @Override
+    public char translateChar(char chr) {
+        return (translationTable != null) ? translationTable[chr] : chr;
+    }
+
+    // screen manipulation
+
+    /**
+     * Put color to color RAM at given position <p><i>Like in the view, positions past the end of a row wrap to the next
+     * row</i></p>
+     */
+    public void putColor(int color, int x, int y) {
+        putColor(color, x + y * screenWidth);
+    }
+
+    /**
+     * Put color to color RAM at given offset
+     */
+    @Override
+    public void putColor(int color, int offset) {
+        if (validOffset(offset) && validColor(color)) {
+            colorRam[offset] = color;
+        }
+    }
+
+    /**
+     * Fill color RAM with given color
+     */
+    public void fillWithColor(int color) {
+        if (validColor(color)) {
+            Arrays.fill(colorRam, color);
+        }
+    }
+
+    /**
+     * Fill portion of color RAM with given color <p><i>Cells are addressed like by
+     * {@link #putColor(int, int, int)}</i></p>
+     */
+    public void fillWithColor(int color, int fromX, int fromY, int toX, int toY) {
+        if (validColor(color)) {
+            for (int y = fromY; y <= toY; y++) {
+                fillRow(colorRam, fromX + y * screenWidth, toX + y * screenWidth, color);
+            }
+        }
+    }
+
+    /**
+     * Put char to screen RAM at given position <p><i>Like in the view, positions past the end of a row wrap to the next
+     * row</i></p>
+     */
+    public void putChar(char chr, int x, int y) {
+        putChar(chr, x + y * screenWidth);
+    }
+
+    /**
+     * Put char to screen RAM at given offset
+     */
+    @Override
+    public void putChar(char chr, int offset) {
+        if (validOffset(offset)) {
+            screenRam[offset] = chr;
+        }
+    }
+
+    /**
+     * Fill screen RAM with given char
+     */
+    @Override
+    public void fillWithChar(char chr) {
+        Arrays.fill(screenRam, chr);
+    }
+
+    /**
+     * Fill portion of screen RAM with given char <p><i>Cells are addressed like by
+     * {@link #putChar(char, int, int)}</i></p>
+     */
+    public void fillWithChar(char chr, int fromX, int fromY, int toX, int toY) {
+        for (int y = fromY; y <= toY; y++) {
+            fillRow(screenRam, fromX + y * screenWidth, toX + y * screenWidth, chr);
+        }
+    }
+
+    /**
+     * Print text at given position with given color
+     */
+    @Override
+    public void printText(String text, int x, int y, int color) {
+        printText(text, x + y * screenWidth, color);
+    }
+
+    /**
+     * Print text at given offset with given color
+     */
+    public void printText(String text, int offset, int color) {
+
+        // check if string is empty
+        if (TextUtils.isEmpty(text)) {
+            return;
+        }
+
+        int lineStartOffset = offset;
+
+        for (int i = 0; i < text.length(); i++) {
+
+            char chr = text.charAt(i);
+
+            // line break
+            if (chr == 10) {
+                offset = lineStartOffset + screenWidth;
+                lineStartOffset = offset;
+            }
+
+            // char
+            else {
+                putChar(translateChar(chr), offset);
+                putColor(color, offset);
+                offset++;
+            }
+        }
+    }
+
+    /**
+     * Print formatted text at given position with given color <p><i>See {@link PETSCIIFormatter}</i></p>
+     */
+    public void printFormattedText(String text, int x, int y, int color) {
+        printFormattedText(text, x + y * screenWidth, color);
+    }
+
+    /**
+     * Print formatted text at given offset with given color
+     */
+    public void printFormattedText(String text, int offset, int color) {
+        PETSCIIFormatter.printFormattedText(this, text, offset, color);
+    }
+
+    /**
+     * Mark buffer as handed to a view
+     */
+    void setCommitPending(boolean pending) {
+        commitPending = pending;
+    }
+
+    /**
+     * Return screen RAM
+     */
+    char[] getScreenRam() {
+        return screenRam;
+    }
+
+    /**
+     * Return color RAM
+     */
+    int[] getColorRam() {
+        return colorRam;
+    }
+
+    /**
+     * Replace screen and color RAM with arrays of the same size <p><i>Called by the view when swapping</i></p>
+     */
+    void setRam(char[] screenRam, int[] colorRam) {
+        this.screenRam = screenRam;
+        this.colorRam = colorRam;
+    }
+
+    /**
+     * Check if a position is in range
+     */
+    private boolean validPosition(int x, int y) {
+        return (x >= 0 && x < screenWidth && y >= 0 && y < screenHeight);
+    }
+
+    /**
+     * Fill cells from one offset to another (inclusive), offsets out of range are skipped
+     */
+    private void fillRow(char[] ram, int fromOffset, int toOffset, char chr) {
+        fromOffset = Math.max(fromOffset, 0);
+        toOffset = Math.min(toOffset, ram.length - 1);
+        if (fromOffset <= toOffset) {
+            Arrays.fill(ram, fromOffset, toOffset + 1, chr);
+        }
+    }
+
+    /**
+     * Fill cells from one offset to another (inclusive), offsets out of range are skipped
+     */
+    private void fillRow(int[] ram, int fromOffset, int toOffset, int color) {
+        fromOffset = Math.max(fromOffset, 0);
+        toOffset = Math.min(toOffset, ram.length - 1);
+        if (fromOffset <= toOffset) {
+            Arrays.fill(ram, fromOffset, toOffset + 1, color);
+        }
+    }
+
+    /**
+     * Check if a offset is in range
+     */
+    private boolean validOffset(int offset) {
+        return (offset >= 0 && offset < screenWidth * screenHeight);
+    }
+
+    /**
+     * Check if a color is in range
+     */
+    private boolean validColor(int color) {
+        return (color >= 0 && color < PETSCIIColors.C64.length);
+    }
+}
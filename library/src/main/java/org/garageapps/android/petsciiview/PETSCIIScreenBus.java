@@ -0,0 +1,224 @@
+package org.garageapps.android.petsciiview;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * PETSCIIScreenBus
+ * <p>
+ * Screen and color RAM in C64 layout for emulators: one screen code byte per cell and one color nibble per cell, row
+ * after row, like the memory at $0400 and $D800. An emulator writes bytes in place from its own thread, every write
+ * bumps the generation of the written row. {@link #endFrame} hands the frame to the attached {@link PETSCIIView},
+ * which decodes and redraws only rows whose generation changed.
+ * <p>
+ * Bytes written straight into {@link #getScreenBuffer} or {@link #getColorBuffer} (e.g. by native code) are not
+ * watched, call {@link #touchRows} for them. The bus must be written by one thread at a time.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIScreenBus {
+
+    /**
+     * Default C64 addresses of screen and color RAM
+     */
+    public static final int SCREEN_ADDRESS = 0x0400;
+    public static final int COLOR_ADDRESS = 0xd800;
+
+    private final int screenWidth;
+    private final int screenHeight;
+    private final ByteBuffer screenBuffer;
+    private final ByteBuffer colorBuffer;
+    private final int[] rowGenerations;
+    private volatile int frame;
+    private int screenAddress = SCREEN_ADDRESS;
+    private volatile boolean lowercase;
+    private volatile PETSCIIView view;
+    private final AtomicBoolean syncPending = new AtomicBoolean();
+
+    /**
+     * Constructor <p><i>Screen is cleared with spaces in light blue</i></p>
+     *
+     * @param screenWidth
+     *         screen width (must match the view)
+     * @param screenHeight
+     *         screen height (must match the view)
+     * @param direct
+     *         allocate direct buffers which native code can access without copying
+     */
+    public PETSCIIScreenBus(int screenWidth, int screenHeight, boolean direct) {
+
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+
+        int size = screenWidth * screenHeight;
+        screenBuffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        colorBuffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        rowGenerations = new int[screenHeight];
+
+        for (int i = 0; i < size; i++) {
+            screenBuffer.put(i, (byte) 0x20);
+            colorBuffer.put(i, (byte) 14);
+        }
+    }
+
+    /**
+     * Return screen width
+     */
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+
+    /**
+     * Return screen height
+     */
+    public int getScreenHeight() {
+        return screenHeight;
+    }
+
+    /**
+     * Return screen RAM, one screen code per cell
+     */
+    public ByteBuffer getScreenBuffer() {
+        return screenBuffer;
+    }
+
+    /**
+     * Return color RAM, color in the low nibble of every cell
+     */
+    public ByteBuffer getColorBuffer() {
+        return colorBuffer;
+    }
+
+    /**
+     * Set address of screen RAM used by {@link #write} (VIC-II bank and video matrix), color RAM stays at $D800
+     */
+    public void setScreenAddress(int address) {
+        screenAddress = address;
+    }
+
+    /**
+     * Decode screen codes with lowercase or uppercase character set <p><i>Ignored if the view has a custom character
+     * set</i></p>
+     */
+    public void setLowercase(boolean lowercase) {
+        if (lowercase != this.lowercase) {
+            this.lowercase = lowercase;
+            touchRows(0, screenHeight - 1);
+        }
+    }
+
+    /**
+     * Return true if screen codes are decoded with lowercase character set
+     */
+    public boolean isLowercase() {
+        return lowercase;
+    }
+
+    /**
+     * Write byte at given C64 address <p><i>Meant for the memory write handler of an emulator</i></p>
+     *
+     * @return true if address belongs to screen or color RAM
+     */
+    public boolean write(int address, int value) {
+
+        int offset = address - screenAddress;
+        if (offset >= 0 && offset < screenWidth * screenHeight) {
+            writeScreen(offset, value);
+            return true;
+        }
+
+        offset = address - COLOR_ADDRESS;
+        if (offset >= 0 && offset < screenWidth * screenHeight) {
+            writeColor(offset, value);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Write screen code at given offset
+     */
+    public void writeScreen(int offset, int code) {
+        if (offset >= 0 && offset < screenWidth * screenHeight) {
+            screenBuffer.put(offset, (byte) code);
+            rowGenerations[offset / screenWidth]++;
+        }
+    }
+
+    /**
+     * Write color at given offset <p><i>Only the low nibble is used, like on a real C64</i></p>
+     */
+    public void writeColor(int offset, int color) {
+        if (offset >= 0 && offset < screenWidth * screenHeight) {
+            colorBuffer.put(offset, (byte) (color & 0x0f));
+            rowGenerations[offset / screenWidth]++;
+        }
+    }
+
+    /**
+     * Return screen code at given offset
+     */
+    public int readScreen(int offset) {
+        return screenBuffer.get(offset) & 0xff;
+    }
+
+    /**
+     * Return color at given offset
+     */
+    public int readColor(int offset) {
+        return colorBuffer.get(offset) & 0x0f;
+    }
+
+    /**
+     * Mark rows written directly into the buffers as changed
+     */
+    public void touchRows(int fromY, int toY) {
+        for (int y = Math.max(fromY, 0); y <= Math.min(toY, screenHeight - 1); y++) {
+            rowGenerations[y]++;
+        }
+    }
+
+    /**
+     * Publish written rows to the attached view <p><i>Call once per emulated frame, the view is updated on the UI
+     * thread</i></p>
+     */
+    public void endFrame() {
+
+        // volatile write makes row writes visible to the UI thread
+        frame++;
+
+        PETSCIIView target = view;
+        if (target != null && syncPending.compareAndSet(false, true)) {
+            target.postScreenBusSync();
+        }
+    }
+
+    /**
+     * Attach view updated by {@link #endFrame}
+     */
+    void setView(PETSCIIView view) {
+        this.view = view;
+    }
+
+    /**
+     * Return generation of a row, changed by every write to the row <p><i>Must be read after {@link #getFrame}</i></p>
+     */
+    int getRowGeneration(int y) {
+        return rowGenerations[y];
+    }
+
+    /**
+     * Return number of published frames
+     */
+    int getFrame() {
+        return frame;
+    }
+
+    /**
+     * Mark published frame as taken by the view
+     */
+    void clearSyncPending() {
+        syncPending.set(false);
+    }
+}
@@ -0,0 +1,167 @@
+package org.garageapps.android.petsciiview;
+
+/**
+ * PETSCIIScreenDiff
+ * <p>
+ * Changed spans between a current and a target frame (screen and color RAM). Each span covers consecutive changed
+ * cells within a single row. Instances are meant to be reused, span storage grows only when needed.
+ */
+public class PETSCIIScreenDiff {
+
+    private int[] spans = new int[3 * 64];
+    private int spanCount;
+    private int changedCells;
+    private int screenWidth;
+    private int screenHeight;
+
+    /**
+     * Compute spans which differ between current and target frame
+     *
+     * @param screenRam
+     *         current screen RAM
+     * @param colorRam
+     *         current color RAM
+     * @param targetScreenRam
+     *         target screen RAM
+     * @param targetColorRam
+     *         target color RAM
+     * @param screenWidth
+     *         screen width
+     * @param screenHeight
+     *         screen height
+     */
+    public void compute(char[] screenRam, int[] colorRam, char[] targetScreenRam, int[] targetColorRam, int screenWidth,
+                        int screenHeight) {
+
+        clear();
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+
+        for (int y = 0; y < screenHeight; y++) {
+
+            int rowOffset = y * screenWidth;
+            int spanStart = -1;
+
+            for (int x = 0; x < screenWidth; x++) {
+
+                int offset = rowOffset + x;
+                boolean changed = screenRam[offset] != targetScreenRam[offset] || colorRam[offset] != targetColorRam[offset];
+
+                // open span
+                if (changed) {
+                    changedCells++;
+                    if (spanStart == -1) {
+                        spanStart = x;
+                    }
+                }
+
+                // close span
+                else if (spanStart != -1) {
+                    addSpan(y, spanStart, x - 1);
+                    spanStart = -1;
+                }
+            }
+
+            // close span at the end of the row
+            if (spanStart != -1) {
+                addSpan(y, spanStart, screenWidth - 1);
+            }
+        }
+    }
+
+    /**
+     * Add span
+     */
+    private void addSpan(int y, int fromX, int toX) {
+
+        // grow storage
+        if (3 * spanCount == spans.length) {
+            int[] newSpans = new int[2 * spans.length];
+            System.arraycopy(spans, 0, newSpans, 0, spans.length);
+            spans = newSpans;
+        }
+
+        spans[3 * spanCount] = y;
+        spans[3 * spanCount + 1] = fromX;
+        spans[3 * spanCount + 2] = toX;
+        spanCount++;
+    }
+
+    /**
+     * Remove all spans
+     */
+    public void clear() {
+        spanCount = 0;
+        changedCells = 0;
+    }
+
+    /**
+     * Return true if there are no changes
+     */
+    public boolean isEmpty() {
+        return spanCount == 0;
+    }
+
+    /**
+     * Return screen width of the compared frames
+     */
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+
+    /**
+     * Return screen height of the compared frames
+     */
+    public int getScreenHeight() {
+        return screenHeight;
+    }
+
+    /**
+     * Return number of spans
+     */
+    public int getSpanCount() {
+        return spanCount;
+    }
+
+    /**
+     * Return number of changed cells
+     */
+    public int getChangedCells() {
+        return changedCells;
+    }
+
+    /**
+     * Return row of a span
+     */
+    public int getSpanY(int index) {
+        return spans[3 * index];
+    }
+
+    /**
+     * Return first column of a span
+     */
+    public int getSpanFromX(int index) {
+        return spans[3 * index + 1];
+    }
+
+    /**
+     * Return last column of a span (inclusive)
+     */
+    public int getSpanToX(int index) {
+        return spans[3 * index + 2];
+    }
+
+    /**
+     * Return screen offset of the first cell of a span
+     */
+    public int getSpanOffset(int index) {
+        return spans[3 * index] * screenWidth + spans[3 * index + 1];
+    }
+
+    /**
+     * Return number of cells in a span
+     */
+    public int getSpanLength(int index) {
+        return spans[3 * index + 2] - spans[3 * index + 1] + 1;
+    }
+}
@@ -0,0 +1,322 @@
+package org.garageapps.android.petsciiview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PETSCIIScrollback
+ * <p>
+ * Bounded history of lines which scrolled off the top of the {@link PETSCIIView} text window. Lines are stored
+ * compactly in 64 KB chunks: trailing spaces are dropped, chars are stored as one byte screen codes (when the whole
+ * line fits into {@link PETSCIIChars#UPPERCASE} or {@link PETSCIIChars#LOWERCASE}) and colors as run-length nibbles.
+ * Lines are decoded only when they are displayed. The oldest lines are dropped when the scrollback is full.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIScrollback {
+
+    /**
+     * Chunk size, line starts store chunk sequence and position in 16 bits each
+     */
+    private static final int CHUNK_SIZE = 0x10000;
+
+    /**
+     * Longest stored line, so an encoded line always fits into a chunk
+     */
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    /**
+     * Line encodings
+     */
+    private static final int ENCODING_UPPERCASE = 0;
+    private static final int ENCODING_LOWERCASE = 1;
+    private static final int ENCODING_CHARS = 2;
+
+    private final int maxLines;
+    private int[] lineStarts;
+    private long[] lineMasks;
+    private char[] searchBuffer = new char[0];
+    private int firstLine;
+    private int lineCount;
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private int firstChunkSeq;
+    private int chunkPosition = CHUNK_SIZE;
+    private byte[] spareChunk;
+
+    /**
+     * Constructor
+     *
+     * @param maxLines
+     *         maximum number of stored lines
+     */
+    public PETSCIIScrollback(int maxLines) {
+
+        if (maxLines < 1) {
+            throw new IllegalArgumentException("Scrollback must hold at least one line");
+        }
+
+        this.maxLines = maxLines;
+        lineStarts = new int[Math.min(256, maxLines)];
+        lineMasks = new long[lineStarts.length];
+    }
+
+    /**
+     * Return number of stored lines
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Return maximum number of stored lines
+     */
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * Return memory used by line data and line index
+     */
+    public int getSizeInBytes() {
+        return chunks.size() * CHUNK_SIZE + lineStarts.length * (4 + 8);
+    }
+
+    /**
+     * Decode line into given buffers <p><i>Cells after the end of the stored line are filled with spaces in the color
+     * of the last stored cell, lines out of range (e.g. after {@link #clear}) are decoded as empty lines</i></p>
+     *
+     * @param index
+     *         line index (0 is the oldest line)
+     * @param chars
+     *         char buffer
+     * @param colors
+     *         color buffer (may be null)
+     */
+    public void getLine(int index, char[] chars, int[] colors) {
+
+        if (index < 0 || index >= lineCount) {
+            Arrays.fill(chars, ' ');
+            if (colors != null) {
+                Arrays.fill(colors, 0);
+            }
+            return;
+        }
+
+        int start = lineStarts[(firstLine + index) % lineStarts.length];
+        byte[] chunk = chunks.get(((start >>> 16) - firstChunkSeq) & 0xffff);
+        int position = start & 0xffff;
+
+        int encoding = chunk[position];
+        int length = ((chunk[position + 1] & 0xff) << 8) | (chunk[position + 2] & 0xff);
+        int count = Math.min(length, chars.length);
+        position += 5;
+
+        // chars
+        if (encoding == ENCODING_CHARS) {
+            for (int x = 0; x < count; x++) {
+                chars[x] = (char) (((chunk[position + 2 * x] & 0xff) << 8) | (chunk[position + 2 * x + 1] & 0xff));
+            }
+            position += 2 * length;
+        } else {
+            char[] codeChars = (encoding == ENCODING_UPPERCASE) ? PETSCIIChars.UPPERCASE : PETSCIIChars.LOWERCASE;
+            for (int x = 0; x < count; x++) {
+                chars[x] = codeChars[chunk[position + x] & 0xff];
+            }
+            position += length;
+        }
+        Arrays.fill(chars, count, chars.length, ' ');
+
+        if (colors == null) {
+            return;
+        }
+
+        // color runs, 4 bits run length and 4 bits color
+        int color = 0;
+        int x = 0;
+        while (x < count) {
+            int run = chunk[position++] & 0xff;
+            color = run & 0x0f;
+            int end = Math.min(x + (run >> 4) + 1, count);
+            Arrays.fill(colors, x, end, color);
+            x = end;
+        }
+        Arrays.fill(colors, count, colors.length, color);
+    }
+
+    /**
+     * Return index of the newest line containing given text or -1 if no line contains it <p><i>Lines whose char masks
+     * cannot contain the text are not decoded, matches are limited to the width the line was pushed with</i></p>
+     *
+     * @param text
+     *         chars as stored in screen RAM
+     */
+    public int findLine(char[] text) {
+
+        if (text.length == 0) {
+            return -1;
+        }
+
+        long textMask = PETSCIIChars.getCharMask(text, 0, text.length);
+
+        for (int index = lineCount - 1; index >= 0; index--) {
+
+            if ((lineMasks[(firstLine + index) % lineStarts.length] & textMask) != textMask) {
+                continue;
+            }
+
+            // decode candidate up to its pushed width, trailing spaces included
+            int width = getPushedWidth(index);
+            if (text.length > width) {
+                continue;
+            }
+            if (searchBuffer.length < width) {
+                searchBuffer = new char[width];
+            }
+            getLine(index, searchBuffer, null);
+
+            for (int x = 0; x + text.length <= width; x++) {
+                if (PETSCIIChars.regionMatches(searchBuffer, x, text)) {
+                    return index;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Remove all lines <p><i>Views scrolled back show empty lines until their scrollback position is set again</i></p>
+     */
+    public void clear() {
+        chunks.clear();
+        firstLine = 0;
+        lineCount = 0;
+        chunkPosition = CHUNK_SIZE;
+    }
+
+    /**
+     * Append line, drops the oldest line if the scrollback is full
+     */
+    void push(char[] screenRam, int[] colorRam, int offset, int width) {
+
+        // drop trailing spaces
+        width = Math.min(width, MAX_LINE_LENGTH);
+        int length = width;
+        while (length > 0 && screenRam[offset + length - 1] == ' ') {
+            length--;
+        }
+
+        // pick the most compact encoding for the chars
+        int encoding = ENCODING_UPPERCASE;
+        for (int x = 0; x < length && encoding == ENCODING_UPPERCASE; x++) {
+            if (PETSCIIChars.getScreenCode(PETSCIIChars.UPPERCASE, screenRam[offset + x]) == -1) {
+                encoding = ENCODING_LOWERCASE;
+            }
+        }
+        for (int x = 0; x < length && encoding == ENCODING_LOWERCASE; x++) {
+            if (PETSCIIChars.getScreenCode(PETSCIIChars.LOWERCASE, screenRam[offset + x]) == -1) {
+                encoding = ENCODING_CHARS;
+            }
+        }
+
+        if (lineCount == maxLines) {
+            dropFirstLine();
+        }
+
+        // worst case size: header, two bytes per char, one run per cell
+        byte[] chunk = reserve(5 + 3 * length);
+        int start = chunkPosition;
+        int position = chunkPosition;
+
+        chunk[position++] = (byte) encoding;
+        chunk[position++] = (byte) (length >> 8);
+        chunk[position++] = (byte) length;
+        chunk[position++] = (byte) (width >> 8);
+        chunk[position++] = (byte) width;
+
+        // chars
+        if (encoding == ENCODING_CHARS) {
+            for (int x = 0; x < length; x++) {
+                char chr = screenRam[offset + x];
+                chunk[position++] = (byte) (chr >> 8);
+                chunk[position++] = (byte) chr;
+            }
+        } else {
+            char[] codeChars = (encoding == ENCODING_UPPERCASE) ? PETSCIIChars.UPPERCASE : PETSCIIChars.LOWERCASE;
+            for (int x = 0; x < length; x++) {
+                chunk[position++] = (byte) PETSCIIChars.getScreenCode(codeChars, screenRam[offset + x]);
+            }
+        }
+
+        // color runs of up to 16 cells
+        int x = 0;
+        while (x < length) {
+            int color = colorRam[offset + x];
+            int run = 1;
+            while (run < 16 && x + run < length && colorRam[offset + x + run] == color) {
+                run++;
+            }
+            chunk[position++] = (byte) (((run - 1) << 4) | color);
+            x += run;
+        }
+
+        chunkPosition = position;
+
+        // store line start and search mask
+        if (lineCount == lineStarts.length) {
+            int[] starts = new int[Math.min(2 * lineStarts.length, maxLines)];
+            long[] masks = new long[starts.length];
+            for (int i = 0; i < lineCount; i++) {
+                starts[i] = lineStarts[(firstLine + i) % lineStarts.length];
+                masks[i] = lineMasks[(firstLine + i) % lineStarts.length];
+            }
+            lineStarts = starts;
+            lineMasks = masks;
+            firstLine = 0;
+        }
+        lineStarts[(firstLine + lineCount) % lineStarts.length] = (((firstChunkSeq + chunks.size() - 1) & 0xffff) << 16) | start;
+        lineMasks[(firstLine + lineCount) % lineStarts.length] = PETSCIIChars.getCharMask(screenRam, offset, length);
+        lineCount++;
+    }
+
+    /**
+     * Return width a line was pushed with (stored chars plus dropped trailing spaces)
+     */
+    private int getPushedWidth(int index) {
+        int start = lineStarts[(firstLine + index) % lineStarts.length];
+        byte[] chunk = chunks.get(((start >>> 16) - firstChunkSeq) & 0xffff);
+        int position = start & 0xffff;
+        return ((chunk[position + 3] & 0xff) << 8) | (chunk[position + 4] & 0xff);
+    }
+
+    /**
+     * Return chunk with room for given number of bytes at the current position, starting a new chunk if needed
+     */
+    private byte[] reserve(int size) {
+
+        if (chunkPosition + size > CHUNK_SIZE) {
+            chunks.add(spareChunk != null ? spareChunk : new byte[CHUNK_SIZE]);
+            spareChunk = null;
+            chunkPosition = 0;
+        }
+
+        return chunks.get(chunks.size() - 1);
+    }
+
+    /**
+     * Drop the oldest line and release chunks no longer referenced
+     */
+    private void dropFirstLine() {
+
+        firstLine = (firstLine + 1) % lineStarts.length;
+        lineCount--;
+
+        int chunkSeq = (lineCount > 0) ? lineStarts[firstLine] >>> 16 : firstChunkSeq + chunks.size() - 1;
+        while (((chunkSeq - firstChunkSeq) & 0xffff) > 0) {
+            spareChunk = chunks.remove(0);
+            firstChunkSeq = (firstChunkSeq + 1) & 0xffff;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package org.garageapps.android.petsciiview;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+/**
+ * PETSCIISprite
+ * <p>
+ * Movable single color bitmap object composited over the {@link PETSCIIView} screen, similar to C64 hardware sprites.
+ * Position and size are in C64 pixels (8 per character) relative to the upper left corner of the screen. Sprites can
+ * be up to 32 pixels wide so an expanded row still fits into a 64 bit collision mask.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIISprite {
+
+    public static final int DEFAULT_WIDTH = 24;
+    public static final int DEFAULT_HEIGHT = 21;
+    public static final int MAX_WIDTH = 32;
+
+    private final int width;
+    private final int height;
+    private final long[] rows;
+    private long[] collisionRows;
+    private final Bitmap bitmap;
+    private final int[] bitmapRow;
+
+    private int x;
+    private int y;
+    private int color = 1;
+    private boolean expandX;
+    private boolean expandY;
+    private boolean behindScreen;
+    private boolean visible = true;
+
+    private PETSCIIView view;
+
+    /**
+     * Constructor for a C64 sized sprite (24 x 21 pixels)
+     */
+    public PETSCIISprite() {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param width
+     *         width in pixels (1 - 32)
+     * @param height
+     *         height in pixels
+     */
+    public PETSCIISprite(int width, int height) {
+
+        if (width < 1 || width > MAX_WIDTH || height < 1) {
+            throw new IllegalArgumentException("Invalid sprite size " + width + "x" + height);
+        }
+
+        this.width = width;
+        this.height = height;
+        rows = new long[height];
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        bitmapRow = new int[width];
+
+        updateCollisionRows();
+    }
+
+    /**
+     * Set all pixels from sprite data <p><i>(width + 7) / 8 bytes per row, most significant bit is the leftmost pixel,
+     * same as the C64 sprite format</i></p>
+     *
+     * @param data
+     *         sprite data
+     */
+    public void setPixels(byte[] data) {
+
+        int bytesPerRow = (width + 7) / 8;
+
+        for (int row = 0; row < height; row++) {
+            long bits = 0;
+            for (int i = 0; i < bytesPerRow && row * bytesPerRow + i < data.length; i++) {
+                bits |= (long) (data[row * bytesPerRow + i] & 0xff) << (56 - 8 * i);
+            }
+            rows[row] = bits & (-1L << (64 - width));
+            rasterizeRow(row);
+        }
+
+        updateCollisionRows();
+        invalidate();
+    }
+
+    /**
+     * Set single pixel
+     */
+    public void setPixel(int px, int py, boolean set) {
+
+        if (px < 0 || px >= width || py < 0 || py >= height) {
+            return;
+        }
+
+        if (set) {
+            rows[py] |= 1L << (63 - px);
+        } else {
+            rows[py] &= ~(1L << (63 - px));
+        }
+
+        rasterizeRow(py);
+        updateCollisionRows();
+        invalidate();
+    }
+
+    /**
+     * Move sprite <p><i>Invalidates only old and new sprite bounds</i></p>
+     *
+     * @param x
+     *         x position in pixels
+     * @param y
+     *         y position in pixels
+     */
+    public void setPosition(int x, int y) {
+        if (x != this.x || y != this.y) {
+            invalidate();
+            this.x = x;
+            this.y = y;
+            invalidate();
+        }
+    }
+
+    /**
+     * Set sprite color
+     */
+    public void setColor(int color) {
+        if (color >= 0 && color < PETSCIIColors.C64.length) {
+            this.color = color;
+            invalidate();
+        }
+    }
+
+    /**
+     * Set horizontal and vertical expansion (doubles pixel size)
+     */
+    public void setExpand(boolean expandX, boolean expandY) {
+        invalidate();
+        this.expandX = expandX;
+        this.expandY = expandY;
+        updateCollisionRows();
+        invalidate();
+    }
+
+    /**
+     * Set priority, sprites behind the screen are covered by character pixels
+     */
+    public void setBehindScreen(boolean behindScreen) {
+        this.behindScreen = behindScreen;
+        invalidate();
+    }
+
+    /**
+     * Show or hide sprite
+     */
+    public void setVisible(boolean visible) {
+        if (visible != this.visible) {
+            this.visible = visible;
+            invalidate();
+        }
+    }
+
+    /**
+     * Return x position
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Return y position
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Return sprite color
+     */
+    public int getColor() {
+        return color;
+    }
+
+    /**
+     * Return true if sprite is covered by character pixels
+     */
+    public boolean isBehindScreen() {
+        return behindScreen;
+    }
+
+    /**
+     * Return true if sprite is visible
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Return displayed width in pixels (including expansion)
+     */
+    public int getDisplayWidth() {
+        return expandX ? 2 * width : width;
+    }
+
+    /**
+     * Return displayed height in pixels (including expansion)
+     */
+    public int getDisplayHeight() {
+        return expandY ? 2 * height : height;
+    }
+
+    /**
+     * Return true if any set pixel of this sprite overlaps a set pixel of another sprite <p><i>Compares 64 bit row
+     * masks, only overlapping rows of overlapping bounding boxes are checked</i></p>
+     */
+    public boolean collidesWith(PETSCIISprite other) {
+
+        if (other == this || !visible || !other.visible) {
+            return false;
+        }
+
+        // bounding boxes
+        int fromY = Math.max(y, other.y);
+        int toY = Math.min(y + getDisplayHeight(), other.y + other.getDisplayHeight());
+        if (fromY >= toY || Math.max(x, other.x) >= Math.min(x + getDisplayWidth(), other.x + other.getDisplayWidth())) {
+            return false;
+        }
+
+        // align other sprite's mask to this sprite (bounding boxes overlap, so the distance is below 64)
+        int dx = other.x - x;
+
+        for (int row = fromY; row < toY; row++) {
+            long mask = collisionRows[row - y];
+            long otherMask = other.collisionRows[row - other.y];
+            if (dx >= 0 ? (mask & (otherMask >>> dx)) != 0 : ((mask >>> -dx) & otherMask) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Return alpha bitmap of the sprite pixels
+     */
+    Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * Attach sprite to a view
+     */
+    void setView(PETSCIIView view) {
+        this.view = view;
+    }
+
+    /**
+     * Invalidate current sprite bounds in the view
+     */
+    private void invalidate() {
+        if (view != null) {
+            view.invalidateSprite(this);
+        }
+    }
+
+    /**
+     * Copy mask row into the bitmap
+     */
+    private void rasterizeRow(int row) {
+        for (int px = 0; px < width; px++) {
+            bitmapRow[px] = ((rows[row] & (1L << (63 - px))) != 0) ? Color.WHITE : Color.TRANSPARENT;
+        }
+        bitmap.setPixels(bitmapRow, 0, width, 0, row, width, 1);
+    }
+
+    /**
+     * Build expanded collision masks
+     */
+    private void updateCollisionRows() {
+
+        int displayHeight = getDisplayHeight();
+        if (collisionRows == null || collisionRows.length != displayHeight) {
+            collisionRows = new long[displayHeight];
+        }
+
+        for (int row = 0; row < displayHeight; row++) {
+
+            long bits = rows[expandY ? row / 2 : row];
+
+            // double every pixel
+            if (expandX) {
+                long expanded = 0;
+                for (int px = 0; px < width; px++) {
+                    if ((bits & (1L << (63 - px))) != 0) {
+                        expanded |= 3L << (62 - 2 * px);
+                    }
+                }
+                bits = expanded;
+            }
+
+            collisionRows[row] = bits;
+        }
+    }
+}
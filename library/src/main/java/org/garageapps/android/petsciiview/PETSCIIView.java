@@ -2,25 +2,59 @@ package org.garageapps.android.petsciiview;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Picture;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Typeface;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * PETSCIIView
  *
  * @author Vladimir Ignjatijevic
  */
-public class PETSCIIView extends View implements View.OnTouchListener {
+public class PETSCIIView extends View implements View.OnTouchListener, PETSCIIScreen {
 
     private static final String ASSETS_FONT_PATH = "fonts/C64_Pro_Mono-STYLE.ttf";
 
+    /**
+     * Character modes
+     */
+    public static final int MODE_STANDARD = 0;
+    public static final int MODE_EXTENDED_BACKGROUND = 1;
+    public static final int MODE_MULTICOLOR = 2;
+
+    /**
+     * Cursor and flashing cells blink every 20 jiffies, like on the C64
+     */
+    private static final long BLINK_INTERVAL = 333;
+
+    /**
+     * Screen codes of box drawing glyphs (corners in order top left, top right, bottom left, bottom right)
+     */
+    private static final int FRAME_HORIZONTAL = 64;
+    private static final int FRAME_VERTICAL = 93;
+    private static final int[] FRAME_CORNERS = {112, 110, 109, 125};
+    private static final int[] FRAME_ROUNDED_CORNERS = {85, 73, 74, 75};
+
     /**
      * PETSCIIListener
      */
@@ -39,6 +73,26 @@ public class PETSCIIView extends View implements View.OnTouchListener {
         void onClick(int action, int x, int y);
     }
 
+    /**
+     * PETSCIIHotspotListener
+     */
+    public interface PETSCIIHotspotListener {
+
+        /**
+         * On hotspot touched
+         *
+         * @param action
+         *         action event
+         * @param id
+         *         hotspot id
+         * @param x
+         *         x position
+         * @param y
+         *         y position
+         */
+        void onHotspot(int action, int id, int x, int y);
+    }
+
     /**
      * Attribute defaults
      */
@@ -57,6 +111,56 @@ public class PETSCIIView extends View implements View.OnTouchListener {
      * Listener
      */
     private PETSCIIListener listener;
+    private PETSCIIHotspotListener hotspotListener;
+
+    /**
+     * Touch members
+     */
+    private boolean cellMovesOnly;
+    private int lastTouchX;
+    private int lastTouchY;
+    private int[] hotspotGrid;
+    private List<int[]> hotspots = new ArrayList<>();
+
+    /**
+     * Text translation table (null if disabled)
+     */
+    private char[] translationTable;
+
+    /**
+     * Handler committing screen buffers filled on other threads
+     */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Undo history
+     */
+    private PETSCIIHistory history;
+
+    /**
+     * Event recorder
+     */
+    private PETSCIIRecorder recorder;
+
+    /**
+     * Scrollback members
+     */
+    private PETSCIIScrollback scrollback;
+    private int scrollbackPosition;
+    private float scrollTouchY;
+    private int scrollTouchPosition;
+
+    /**
+     * Emulator screen bus members
+     */
+    private PETSCIIScreenBus screenBus;
+    private int[] screenBusGenerations;
+    private final Runnable screenBusSyncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            syncScreenBus(false);
+        }
+    };
 
     /**
      * View members
@@ -64,14 +168,122 @@ public class PETSCIIView extends View implements View.OnTouchListener {
     private Paint borderPaint;
     private Paint backgroundPaint;
     private Paint[] colorsPaint;
-    private char[] lineBuffer;
+    private LineBuffers line;
     private char[] screenRam;
     private boolean screenRamEnabled;
     private int[] colorRam;
     private boolean colorRamEnabled;
     private Typeface textTypeface;
     private Rect textBounds;
+    private Rect clipBounds;
     private int textHeight;
+    private PETSCIIScreenDiff frameDiff;
+
+    /**
+     * Custom character set members
+     */
+    private PETSCIICharset charset;
+    private PETSCIICharset fontCharset;
+    private PETSCIICharset lowercaseFontCharset;
+
+    /**
+     * Character mode members
+     */
+    private int charMode = MODE_STANDARD;
+    private int[] bkgColors = {6, 1, 2, 3};
+
+    /**
+     * Raster members (per row colors, -1 uses the global color)
+     */
+    private int[] rasterBorderColors;
+    private int[] rasterBkgColors;
+
+    /**
+     * Sprite members
+     */
+    private List<PETSCIISprite> sprites = new ArrayList<>();
+    private RectF spriteBounds = new RectF();
+
+    /**
+     * Layers composited over the screen
+     */
+    private List<PETSCIILayer> layers = new ArrayList<>();
+
+    /**
+     * Banded rendering members (row versions change with every write or invalidation of a row)
+     */
+    private boolean bandedRendering;
+    private BandWorker[] bandWorkers;
+    private List<RenderBand> bands;
+    private RenderBand[] dirtyBands;
+    private int dirtyBandCount;
+    private volatile int bandGeneration;
+    private final AtomicInteger pendingBandWorkers = new AtomicInteger();
+    private volatile Thread bandWaiter;
+    private volatile RuntimeException bandError;
+
+    /**
+     * Row caching members (recorded rows and the versions they were recorded at)
+     */
+    private boolean rowCaching;
+    private Picture[] rowPictures;
+    private int[] rowPictureVersions;
+    private int[] rowPictureGlobalVersions;
+
+    /**
+     * Cached text runs per row (run count, then start and length << 4 | color of every run)
+     */
+    private int[][] rowRuns;
+    private int[] rowRunVersions;
+    private int[] rowRunGlobalVersions;
+
+    /**
+     * Search masks of chars per row and the row versions they were computed at
+     */
+    private long[] rowCharMasks;
+    private int[] rowCharMaskVersions;
+    private int[] rowVersions;
+    private int globalVersion;
+
+    /**
+     * Zoom members
+     */
+    private ScaleGestureDetector zoomDetector;
+    private boolean zoomEnabled;
+    private int zoomMinFontSize = 8;
+    private int zoomMaxFontSize = 64;
+    private float zoomScale;
+    private float zoomFocusX;
+    private float zoomFocusY;
+    private Bitmap zoomBitmap;
+    private Paint zoomPaint;
+
+    /**
+     * Cursor members
+     */
+    private int cursorX;
+    private int cursorY;
+    private int windowLeft;
+    private int windowTop;
+    private int windowRight;
+    private int windowBottom;
+
+    /**
+     * Blink members
+     */
+    private boolean cursorVisible;
+    private long[] flashCells;
+    private int[] flashRowCounts;
+    private int flashCount;
+    private boolean blinkPhase;
+    private boolean blinkScheduled;
+    private final Runnable blinkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            blinkScheduled = false;
+            blink();
+        }
+    };
 
     /**
      * Constructor
@@ -127,9 +339,17 @@ public class PETSCIIView extends View implements View.OnTouchListener {
         // recycle attributes
         typedArray.recycle();
 
+        // load font
+        textTypeface = Typeface.createFromAsset(context.getAssets(), ASSETS_FONT_PATH);
+
         // initialize view
         initView();
 
+        // initialize zoom (nearest-neighbour scaling keeps the pixels crisp)
+        zoomDetector = new ScaleGestureDetector(context, new ZoomListener());
+        zoomPaint = new Paint();
+        zoomPaint.setFilterBitmap(false);
+
         // reset buffers to default values
         fillWithChar(' ');
         fillWithColor(14);
@@ -155,22 +375,41 @@ public class PETSCIIView extends View implements View.OnTouchListener {
         borderPaint = new Paint();
         backgroundPaint = new Paint();
         colorsPaint = new Paint[PETSCIIColors.C64.length];
-        lineBuffer = new char[screenWidth];
+        line = new LineBuffers(screenWidth);
+        rasterBorderColors = new int[screenHeight];
+        rasterBkgColors = new int[screenHeight];
+        Arrays.fill(rasterBorderColors, -1);
+        Arrays.fill(rasterBkgColors, -1);
+        flashCells = new long[(screenWidth * screenHeight + 63) / 64];
+        flashRowCounts = new int[screenHeight];
+        flashCount = 0;
         screenRam = new char[screenWidth * screenHeight];
         colorRam = new int[screenWidth * screenHeight];
+        hotspotGrid = new int[screenWidth * screenHeight];
+        Arrays.fill(hotspotGrid, -1);
+        hotspots.clear();
+        layers.clear();
+        rowVersions = new int[screenHeight];
+        rowRuns = new int[screenHeight][];
+        rowRunVersions = new int[screenHeight];
+        rowRunGlobalVersions = new int[screenHeight];
+        rowCharMasks = new long[screenHeight];
+        rowCharMaskVersions = new int[screenHeight];
+        Arrays.fill(rowCharMaskVersions, -1);
+        bands = null;
         textBounds = new Rect();
+        clipBounds = new Rect();
+        frameDiff = new PETSCIIScreenDiff();
 
         // allocate colors
         for (int i = 0; i < colorsPaint.length; i++) {
             colorsPaint[i] = new Paint();
-            colorsPaint[i].setTextSize(fontSize);
-            colorsPaint[i].setTypeface(getTextTypeface());
+            colorsPaint[i].setTypeface(textTypeface);
             colorsPaint[i].setColor(Color.parseColor(PETSCIIColors.C64[i]));
         }
 
-        // get text height from the highest available character in charset (reversed space)
-        colorsPaint[0].getTextBounds(String.valueOf(PETSCIIChars.UPPERCASE[160]), 0, 1, textBounds);
-        textHeight = textBounds.height();
+        // apply font size
+        initFontSize();
 
         // set colors
         setBorderColor(borderColor);
@@ -180,6 +419,67 @@ public class PETSCIIView extends View implements View.OnTouchListener {
         // enable both buffers
         setScreenRamEnabled(true);
         setColorRamEnabled(true);
+
+        // text window covers whole screen
+        resetTextWindow();
+
+        // recorded offsets are no longer valid
+        if (history != null) {
+            history.clear();
+        }
+
+        // show live screen
+        scrollbackPosition = 0;
+
+        // resized and cleared screen replaces the recorded one
+        if (recorder != null) {
+            recordScreen();
+        }
+    }
+
+    /**
+     * Apply font size to text paints <p><i>Must be called on every font size update, keeps screen and color RAM intact</i></p>
+     */
+    private void initFontSize() {
+
+        for (Paint paint : colorsPaint) {
+            paint.setTextSize(fontSize);
+        }
+
+        // get text height from the highest available character in charset (reversed space)
+        colorsPaint[0].getTextBounds(PETSCIIChars.UPPERCASE, 160, 1, textBounds);
+        textHeight = textBounds.height();
+
+        // band tiles and recorded rows depend on the font size
+        bands = null;
+        rowPictures = null;
+        markScreenDirty();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        scheduleBlink();
+
+        // glyphs may have changed while detached
+        if (charset != null) {
+            charset.attach(this);
+            markScreenDirty();
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(blinkRunnable);
+        blinkScheduled = false;
+        shutdownBandWorkers();
+
+        // a shared character set must not keep detached views alive
+        if (charset != null) {
+            charset.detach(this);
+        }
     }
 
     @Override
@@ -194,12 +494,49 @@ public class PETSCIIView extends View implements View.OnTouchListener {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
+        // zoom gesture in progress, scale cached screen instead of rendering it
+        if (zoomBitmap != null) {
+            canvas.drawRect(0, 0, getViewWidth(), getViewHeight(), borderPaint);
+            canvas.save();
+            canvas.scale(zoomScale, zoomScale, zoomFocusX, zoomFocusY);
+            canvas.drawBitmap(zoomBitmap, 0, 0, zoomPaint);
+            canvas.restore();
+            return;
+        }
+
+        drawScreen(canvas);
+    }
+
+    /**
+     * Render border and screen to canvas
+     */
+    private void drawScreen(Canvas canvas) {
+
         // save canvas
         canvas.save();
 
         // render border
         canvas.drawRect(0, 0, getViewWidth(), getViewHeight(), borderPaint);
 
+        // render only rows intersecting the clip (dirty) area
+        canvas.getClipBounds(clipBounds);
+        int fromY = Math.max(0, (clipBounds.top - borderSizeTop) / fontSize);
+        int toY = Math.min(screenHeight - 1, (clipBounds.bottom - borderSizeTop) / fontSize);
+
+        // render raster border colors (whole row if the screen is off)
+        for (int y = fromY; y <= toY; y++) {
+            int color = rasterBorderColors[y];
+            if (color != -1 && color != borderColor) {
+                int top = borderSizeTop + y * fontSize;
+                if (screenRamEnabled) {
+                    canvas.drawRect(0, top, borderSizeLeft, top + fontSize, colorsPaint[color]);
+                    canvas.drawRect(getViewWidth() - borderSizeRight, top, getViewWidth(), top + fontSize, colorsPaint[color]);
+                } else {
+                    canvas.drawRect(0, top, getViewWidth(), top + fontSize, colorsPaint[color]);
+                }
+            }
+        }
+
         if (screenRamEnabled) {
 
             // render background
@@ -207,459 +544,2772 @@ public class PETSCIIView extends View implements View.OnTouchListener {
                     backgroundPaint);
 
             // render screen
-            for (int y = 0; y < screenHeight; y++) {
+            if (bandedRendering) {
+                drawBands(canvas, fromY, toY);
+            } else if (rowCaching && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                drawCachedRows(canvas, fromY, toY);
+            } else {
+                for (int y = fromY; y <= toY; y++) {
+                    drawRow(canvas, y, line);
+                }
+            }
+
+            // render sprites in front of characters
+            if (!sprites.isEmpty()) {
+                drawSprites(canvas, borderSizeTop, borderSizeTop + screenHeight * fontSize, false, line.spriteBounds);
+            }
+        }
 
-                int currentIndex = 0;
-                int currentColor = 0;
-                int lastColor = colorRam[y * screenWidth];
-                int copyStart = 0;
-                int copyLength = 0;
+        // restore canvas
+        canvas.restore();
+    }
 
-                // make a copy of the current line
-                System.arraycopy(screenRam, y * screenWidth, lineBuffer, 0, screenWidth);
+    /**
+     * Replay recorded rows, only rows which changed since they were recorded are recorded again
+     */
+    private void drawCachedRows(Canvas canvas, int fromY, int toY) {
 
-                while (currentIndex != screenWidth) {
+        if (rowPictures == null) {
+            rowPictures = new Picture[screenHeight];
+            rowPictureVersions = new int[screenHeight];
+            rowPictureGlobalVersions = new int[screenHeight];
+        }
 
-                    copyLength++;
+        for (int y = fromY; y <= toY; y++) {
 
-                    // get current color from the color ram (or cursor color if color ram is disabled)
-                    currentColor = (!colorRamEnabled) ? cursorColor : colorRam[currentIndex + y * screenWidth];
+            Picture picture = rowPictures[y];
 
-                    // draw characters only if color has been changed
-                    if (currentColor != lastColor) {
-                        canvas.drawText(lineBuffer, copyStart, copyLength, borderSizeLeft + copyStart * fontSize,
-                                textHeight - textBounds.bottom + borderSizeTop + y * fontSize, colorsPaint[lastColor]);
-                        lastColor = currentColor;
-                        copyStart = currentIndex;
-                        copyLength = 1;
-                    }
+            // record row in row coordinates
+            if (picture == null || rowPictureVersions[y] != rowVersions[y] || rowPictureGlobalVersions[y] != globalVersion) {
 
-                    currentIndex++;
+                if (picture == null) {
+                    picture = new Picture();
+                    rowPictures[y] = picture;
                 }
 
-                // draw rest of the characters
-                canvas.drawText(lineBuffer, copyStart, copyLength, borderSizeLeft + copyStart * fontSize,
-                        textHeight - textBounds.bottom + borderSizeTop + y * fontSize, colorsPaint[lastColor]);
+                Canvas recordingCanvas = picture.beginRecording(screenWidth * fontSize, fontSize);
+                recordingCanvas.translate(-borderSizeLeft, -(borderSizeTop + y * fontSize));
+                drawRow(recordingCanvas, y, line);
+                picture.endRecording();
+
+                rowPictureVersions[y] = rowVersions[y];
+                rowPictureGlobalVersions[y] = globalVersion;
             }
-        }
 
-        // restore canvas
-        canvas.restore();
+            canvas.save();
+            canvas.translate(borderSizeLeft, borderSizeTop + y * fontSize);
+            canvas.drawPicture(picture);
+            canvas.restore();
+        }
     }
 
-    @Override
-    public boolean onTouch(View view, MotionEvent event) {
+    /**
+     * Render rows in bands on worker threads, only bands with changed rows are rendered again
+     */
+    private void drawBands(Canvas canvas, int fromY, int toY) {
 
-        if (listener != null) {
+        if (bands == null) {
+            createBands();
+        }
 
-            int x = -1;
+        // glyphs are rasterized lazily, do it here before worker threads need them
+        if (charMode == MODE_MULTICOLOR && colorRamEnabled) {
+            getMulticolorCharset().getMulticolorAtlas(1);
+        }
 
-            // check if x is in horizontal screen bounds
-            if (event.getX() > borderSizeLeft && event.getX() < getViewWidth() - borderSizeRight) {
-                x = (int) ((event.getX() - borderSizeLeft) / fontSize);
+        // collect dirty bands intersecting the clip
+        int count = 0;
+        for (int i = 0; i < bands.size(); i++) {
+            RenderBand band = bands.get(i);
+            if (band.toY >= fromY && band.fromY <= toY && band.isDirty()) {
+                band.markRendered();
+                dirtyBands[count++] = band;
             }
+        }
+        dirtyBandCount = count;
 
-            int y = -1;
+        // render on this thread if there is nothing to share
+        if (count == 1) {
+            dirtyBands[0].render();
+        } else if (count > 1) {
+            renderDirtyBands();
+        }
 
-            // check if y is in vertical screen bounds
-            if (event.getY() > borderSizeTop && event.getY() < getViewHeight() - borderSizeBottom) {
-                y = (int) ((event.getY() - borderSizeTop) / fontSize);
+        // composite tiles
+        for (int i = 0; i < bands.size(); i++) {
+            RenderBand band = bands.get(i);
+            if (band.toY >= fromY && band.fromY <= toY) {
+                canvas.drawBitmap(band.bitmap, borderSizeLeft, borderSizeTop + band.fromY * fontSize, null);
             }
-
-            // notify listener
-            listener.onClick(event.getAction(), x, y);
-
-            return true;
         }
-
-        return false;
     }
 
-    /****************************************************************************************************
-     * HELPER METHODS
-     ***************************************************************************************************/
+    /**
+     * Return number of bands rendered by the last banded frame
+     */
+    int getDirtyBandCount() {
+        return dirtyBandCount;
+    }
 
     /**
-     * Create (if needed) and return text typeface
+     * Render dirty bands on the workers and this thread, each thread takes every n-th band <p><i>Workers are woken and
+     * awaited with park and unpark, so a frame doesn't allocate</i></p>
      */
-    private Typeface getTextTypeface() {
+    private void renderDirtyBands() {
+
+        BandWorker[] workers = getBandWorkers();
+
+        // publish the frame, the volatile write makes dirty bands and screen RAM visible to the workers
+        bandWaiter = Thread.currentThread();
+        bandError = null;
+        pendingBandWorkers.set(workers.length);
+        bandGeneration++;
+
+        for (BandWorker worker : workers) {
+            LockSupport.unpark(worker);
+        }
+
+        // this thread takes the last share, but always waits for the workers
+        try {
+            renderBandShare(workers.length, workers.length + 1);
+        } catch (RuntimeException e) {
+            bandError = e;
+        }
 
-        if (textTypeface == null) {
-            textTypeface = Typeface.createFromAsset(getContext().getAssets(), ASSETS_FONT_PATH);
+        while (pendingBandWorkers.get() != 0) {
+            LockSupport.park(this);
         }
 
-        return textTypeface;
+        if (bandError != null) {
+            throw bandError;
+        }
     }
 
     /**
-     * Return view width
+     * Render dirty bands starting at given index with given step
      */
-    private int getViewWidth() {
-        return borderSizeLeft + screenWidth * fontSize + borderSizeRight;
+    private void renderBandShare(int index, int step) {
+        for (int i = index; i < dirtyBandCount; i += step) {
+            dirtyBands[i].render();
+        }
     }
 
     /**
-     * Return view height
+     * Split screen into bands, two per rendering thread so uneven rows even out
      */
-    private int getViewHeight() {
-        return borderSizeTop + screenHeight * fontSize + borderSizeBottom;
+    private void createBands() {
+
+        int rowsPerBand = Math.max(1, screenHeight / (2 * Runtime.getRuntime().availableProcessors()));
+
+        bands = new ArrayList<>();
+        for (int y = 0; y < screenHeight; y += rowsPerBand) {
+            bands.add(new RenderBand(y, Math.min(y + rowsPerBand, screenHeight) - 1));
+        }
+        dirtyBands = new RenderBand[bands.size()];
     }
 
     /**
-     * Return same char but reversed
+     * Return band rendering threads, one per core besides the UI thread, started on first use
      */
-    private char getReversedChar(char chr) {
+    private BandWorker[] getBandWorkers() {
 
-        for (int i = 0; i < 256; i++) {
-            if (chr == PETSCIIChars.UPPERCASE[i]) {
-                return PETSCIIChars.UPPERCASE[(i + 128) % 256];
-            } else if (chr == PETSCIIChars.LOWERCASE[i]) {
-                return PETSCIIChars.LOWERCASE[(i + 128) % 256];
+        if (bandWorkers == null) {
+            bandWorkers = new BandWorker[Runtime.getRuntime().availableProcessors() - 1];
+            for (int i = 0; i < bandWorkers.length; i++) {
+                bandWorkers[i] = new BandWorker(i, bandWorkers.length + 1, bandGeneration);
+                bandWorkers[i].start();
             }
         }
 
-        return chr;
+        return bandWorkers;
     }
 
     /**
-     * Check if a offset is in range <p><i>Must be called before writing to the screen or to the color RAM</i></p>
+     * Stop band rendering threads
      */
-    private boolean validOffset(int offset) {
-        return (offset >= 0 && offset < screenWidth * screenHeight);
+    private void shutdownBandWorkers() {
+        if (bandWorkers != null) {
+            for (BandWorker worker : bandWorkers) {
+                worker.stopped = true;
+                LockSupport.unpark(worker);
+            }
+            bandWorkers = null;
+        }
     }
 
     /**
-     * Check if a color is in range <p><i>Must be called before writing to the color RAM</i></p>
+     * Mark given rows as changed
      */
-    private boolean validColor(int color) {
-        return (color >= 0 && color < PETSCIIColors.C64.length);
+    private void markRowsDirty(int fromY, int toY) {
+        for (int y = Math.max(fromY, 0); y <= Math.min(toY, screenHeight - 1); y++) {
+            rowVersions[y]++;
+        }
     }
 
     /**
-     * Print error message at top of the screen
-     *
-     * @param errorMessage
-     *         error message
-     * @param text
-     *         text which caused the error
-     * @param position
-     *         position where the error has occurred
+     * Mark all rows as changed <p><i>Called by setters of state shared by every row, cached rows, text runs and band
+     * tiles are rendered again on the next frame</i></p>
      */
-    private void printErrorMessage(String errorMessage, String text, int position) {
-        printFormattedText("{RON}" + errorMessage + " AT POSITION " + position + "{ROF}", 0, 0, 1);
-        printText(text, 0, 1, 1);
+    private void markScreenDirty() {
+        globalVersion++;
     }
 
     /**
-     * Print test picture
+     * Record chars and colors of cells written directly to screen and color RAM
      */
-    private void printTestPicture() {
-
-        int offset;
-
-        printText("**** PETSCII View " + BuildConfig.VERSION_NAME + " ****", 6, 1, cursorColor);
+    private void recordCells(int fromOffset, int toOffset) {
+        if (recorder != null) {
+            for (int i = fromOffset; i < toOffset; i++) {
+                recorder.recordChar(i, screenRam[i]);
+                recorder.recordColor(i, colorRam[i]);
+            }
+        }
+    }
 
-        printText("CHARACTER MAP UPPERCASE:", 0, 4, cursorColor);
+    /**
+     * Render a screen row
+     */
+    private void drawRow(Canvas canvas, int y, LineBuffers line) {
 
-        offset = 6 * screenWidth;
-        for (int i = 0; i < PETSCIIChars.UPPERCASE.length; i++) {
-            putChar(PETSCIIChars.UPPERCASE[i], offset);
-            putColor(cursorColor, offset);
-            offset++;
+        // render raster background color
+        line.bkgColor = (rasterBkgColors[y] != -1) ? rasterBkgColors[y] : backgroundColor;
+        if (line.bkgColor != backgroundColor) {
+            canvas.drawRect(borderSizeLeft, borderSizeTop + y * fontSize, borderSizeLeft + screenWidth * fontSize,
+                    borderSizeTop + (y + 1) * fontSize, colorsPaint[line.bkgColor]);
         }
 
-        printText("CHARACTER MAP LOWERCASE:", 0, 15, cursorColor);
+        composeRow(y, line);
 
-        offset = 17 * screenWidth;
-        for (int i = 0; i < PETSCIIChars.LOWERCASE.length; i++) {
-            putChar(PETSCIIChars.LOWERCASE[i], offset);
-            putColor(cursorColor, offset);
-            offset++;
+        // render backgrounds of extended background color mode
+        if (charMode == MODE_EXTENDED_BACKGROUND) {
+            drawBackgroundRuns(canvas, y, line);
         }
-    }
 
-    /****************************************************************************************************
-     * PETSCII VIEW API
-     ***************************************************************************************************/
+        // render sprites covered by characters
+        if (!sprites.isEmpty()) {
+            int top = borderSizeTop + y * fontSize;
+            drawSprites(canvas, top, top + fontSize, true, line.spriteBounds);
+        }
 
-    // getters
+        // render glyphs from custom character set or text runs
+        if (charset != null) {
+            drawCharsetRow(canvas, y, line);
+        } else {
+            drawTextRuns(canvas, y, line);
+        }
 
-    /**
-     * Return screen width
-     */
-    public int getScreenWidth() {
-        return screenWidth;
+        // render multicolor cells on top of the blanked text
+        if (line.multicolorCount > 0) {
+            drawMulticolorCells(canvas, y, line);
+        }
     }
 
     /**
-     * Return screen height
+     * Compose chars, colors and backgrounds of a row into line buffers depending on the character mode
      */
-    public int getScreenHeight() {
-        return screenHeight;
-    }
+    private void composeRow(int y, LineBuffers line) {
 
-    /**
-     * Return font size
-     */
-    public int getFontSize() {
-        return fontSize;
-    }
+        // screen row shown at this row, scrollback lines are shown above the screen while scrolled back
+        int screenY = y - scrollbackPosition;
+        int rowOffset = screenY * screenWidth;
 
-    /**
-     * Return border size
-     */
-    public Rect getBorderSize() {
-        return new Rect(borderSizeLeft, borderSizeTop, borderSizeRight, borderSizeBottom);
-    }
+        // decode scrollback line
+        if (screenY < 0) {
+            scrollback.getLine(scrollback.getLineCount() + screenY, line.chars, colorRamEnabled ? line.colors : null);
+            if (!colorRamEnabled) {
+                Arrays.fill(line.colors, cursorColor);
+            }
+        }
 
-    /**
-     * Return border color
-     */
-    public int getBorderColor() {
+        // make a copy of the current line
+        else {
+
+            System.arraycopy(screenRam, rowOffset, line.chars, 0, screenWidth);
+
+            // get colors from the color ram (or cursor color if color ram is disabled)
+            if (colorRamEnabled) {
+                System.arraycopy(colorRam, rowOffset, line.colors, 0, screenWidth);
+            } else {
+                Arrays.fill(line.colors, cursorColor);
+            }
+        }
+
+        // compose layers over the screen
+        for (int i = 0; i < layers.size(); i++) {
+            layers.get(i).composeRow(y, line.chars, colorRamEnabled ? line.colors : null);
+        }
+
+        line.multicolorCount = 0;
+
+        // extended background color mode: upper two bits of the screen code select background register
+        if (charMode == MODE_EXTENDED_BACKGROUND) {
+
+            char[] chars = (charset != null) ? charset.getChars() : PETSCIIChars.UPPERCASE;
+
+            for (int x = 0; x < screenWidth; x++) {
+
+                char chr = line.chars[x];
+                int code = (charset != null) ? charset.getScreenCode(chr) : PETSCIIChars.getScreenCode(chars, chr);
+                char[] codeChars = chars;
+
+                // try the other set for font rendering
+                if (code == -1 && charset == null) {
+                    codeChars = PETSCIIChars.LOWERCASE;
+                    code = PETSCIIChars.getScreenCode(codeChars, chr);
+                }
+
+                if (code == -1) {
+                    line.bkgColors[x] = line.bkgColor;
+                } else {
+                    line.bkgColors[x] = (code < 64) ? line.bkgColor : bkgColors[code >> 6];
+                    line.chars[x] = codeChars[code & 0x3f];
+                }
+            }
+        }
+
+        // multicolor mode: cells with color bit 3 set are rendered with double-width pixels
+        else if (charMode == MODE_MULTICOLOR && colorRamEnabled) {
+
+            PETSCIICharset multicolorCharset = getMulticolorCharset();
+
+            for (int x = 0; x < screenWidth; x++) {
+
+                line.multicolorCodes[x] = -1;
+
+                if (line.colors[x] >= 8) {
+                    int code = multicolorCharset.getScreenCode(line.chars[x]);
+                    if (code != -1) {
+                        line.multicolorCodes[x] = code;
+                        line.multicolorCount++;
+                        line.chars[x] = ' ';
+                    }
+                }
+            }
+        }
+
+        if (blinkPhase) {
+
+            // hide flashing cells
+            if (screenY >= 0 && flashRowCounts[screenY] > 0) {
+                for (int x = 0; x < screenWidth; x++) {
+                    if (isFlashing(rowOffset + x)) {
+                        line.chars[x] = ' ';
+                        line.multicolorCodes[x] = -1;
+                    }
+                }
+            }
+
+            // show cursor as reversed char in cursor color
+            if (cursorVisible && screenY == cursorY && cursorX <= windowRight) {
+                line.chars[cursorX] = PETSCIIChars.getReversedChar(line.chars[cursorX]);
+                line.colors[cursorX] = cursorColor;
+                line.multicolorCodes[cursorX] = -1;
+            }
+        }
+    }
+
+    /**
+     * Render runs of cells sharing the same non-default background as single rects
+     */
+    private void drawBackgroundRuns(Canvas canvas, int y, LineBuffers line) {
+
+        int top = borderSizeTop + y * fontSize;
+        int runStart = 0;
+
+        for (int x = 1; x <= screenWidth; x++) {
+
+            // draw run when background changes or the row ends
+            if (x == screenWidth || line.bkgColors[x] != line.bkgColors[runStart]) {
+                if (line.bkgColors[runStart] != line.bkgColor) {
+                    canvas.drawRect(borderSizeLeft + runStart * fontSize, top, borderSizeLeft + x * fontSize, top + fontSize,
+                            colorsPaint[line.bkgColors[runStart]]);
+                }
+                runStart = x;
+            }
+        }
+    }
+
+    /**
+     * Render composed row as runs of same colored text <p><i>Runs are cached until the row changes</i></p>
+     */
+    private void drawTextRuns(Canvas canvas, int y, LineBuffers line) {
+
+        int[] runs = rowRuns[y];
+        if (runs == null || rowRunVersions[y] != rowVersions[y] || rowRunGlobalVersions[y] != globalVersion) {
+            runs = buildTextRuns(line, runs);
+            rowRuns[y] = runs;
+            rowRunVersions[y] = rowVersions[y];
+            rowRunGlobalVersions[y] = globalVersion;
+        }
+
+        int baseline = textHeight - textBounds.bottom + borderSizeTop + y * fontSize;
+
+        for (int i = 0; i < runs[0]; i++) {
+            int start = runs[1 + 2 * i];
+            int lengthColor = runs[2 + 2 * i];
+            canvas.drawText(line.chars, start, lengthColor >> 4, borderSizeLeft + start * fontSize, baseline,
+                    colorsPaint[lengthColor & 0x0f]);
+        }
+    }
+
+    /**
+     * Split composed row into runs of same colored text <p><i>Spaces are invisible in any color, so they never start
+     * or end a run and do not break one; rows of spaces produce no runs at all</i></p>
+     */
+    private int[] buildTextRuns(LineBuffers line, int[] runs) {
+
+        if (runs == null) {
+            runs = new int[1 + 2 * screenWidth];
+        }
+
+        int count = 0;
+        int x = 0;
+
+        while (x < screenWidth) {
+
+            // skip blank cells
+            while (x < screenWidth && line.chars[x] == ' ') {
+                x++;
+            }
+            if (x == screenWidth) {
+                break;
+            }
+
+            // extend run over cells of the same color and blank cells, ending at its last visible cell
+            int start = x;
+            int color = line.colors[x];
+            int end = ++x;
+            while (x < screenWidth && (line.chars[x] == ' ' || line.colors[x] == color)) {
+                if (line.chars[x] != ' ') {
+                    end = x + 1;
+                }
+                x++;
+            }
+
+            runs[1 + 2 * count] = start;
+            runs[2 + 2 * count] = ((end - start) << 4) | color;
+            count++;
+        }
+
+        runs[0] = count;
+
+        return runs;
+    }
+
+    /**
+     * Render composed row using cached glyphs of the custom character set
+     */
+    private void drawCharsetRow(Canvas canvas, int y, LineBuffers line) {
+
+        int top = borderSizeTop + y * fontSize;
+
+        for (int x = 0; x < screenWidth; x++) {
+
+            int code = charset.getScreenCode(line.chars[x]);
+
+            // char not part of the set, fall back to font
+            if (code == -1) {
+                canvas.drawText(line.chars, x, 1, borderSizeLeft + x * fontSize, textHeight - textBounds.bottom + top,
+                        colorsPaint[line.colors[x]]);
+            }
+
+            // skip empty glyphs
+            else if (!charset.isBlank(code)) {
+                charset.getGlyphBounds(code, line.glyphBounds);
+                line.cellBounds.set(borderSizeLeft + x * fontSize, top, borderSizeLeft + (x + 1) * fontSize, top + fontSize);
+                canvas.drawBitmap(charset.getAtlas(), line.glyphBounds, line.cellBounds, colorsPaint[line.colors[x]]);
+            }
+        }
+    }
+
+    /**
+     * Render multicolor cells of composed row (bit pairs 01 and 10 use background registers 1 and 2, 11 uses color RAM)
+     */
+    private void drawMulticolorCells(Canvas canvas, int y, LineBuffers line) {
+
+        PETSCIICharset multicolorCharset = getMulticolorCharset();
+        int top = borderSizeTop + y * fontSize;
+
+        for (int x = 0; x < screenWidth; x++) {
+
+            int code = line.multicolorCodes[x];
+            if (code == -1) {
+                continue;
+            }
+
+            multicolorCharset.getGlyphBounds(code, line.glyphBounds);
+            line.cellBounds.set(borderSizeLeft + x * fontSize, top, borderSizeLeft + (x + 1) * fontSize, top + fontSize);
+
+            canvas.drawBitmap(multicolorCharset.getMulticolorAtlas(1), line.glyphBounds, line.cellBounds, colorsPaint[bkgColors[1]]);
+            canvas.drawBitmap(multicolorCharset.getMulticolorAtlas(2), line.glyphBounds, line.cellBounds, colorsPaint[bkgColors[2]]);
+            canvas.drawBitmap(multicolorCharset.getMulticolorAtlas(3), line.glyphBounds, line.cellBounds, colorsPaint[line.colors[x] & 0x07]);
+        }
+    }
+
+    /**
+     * Render sprites of given priority intersecting given vertical range, clipped to the screen area
+     */
+    private void drawSprites(Canvas canvas, int top, int bottom, boolean behindScreen, RectF spriteBounds) {
+
+        canvas.save();
+        canvas.clipRect(borderSizeLeft, top, borderSizeLeft + screenWidth * fontSize, bottom);
+
+        for (int i = 0; i < sprites.size(); i++) {
+            PETSCIISprite sprite = sprites.get(i);
+            if (sprite.isVisible() && sprite.isBehindScreen() == behindScreen) {
+                getSpriteBounds(sprite, spriteBounds);
+                if (spriteBounds.bottom > top && spriteBounds.top < bottom) {
+                    canvas.drawBitmap(sprite.getBitmap(), null, spriteBounds, colorsPaint[sprite.getColor()]);
+                }
+            }
+        }
+
+        canvas.restore();
+    }
+
+    /**
+     * Return sprite bounds in view coordinates
+     */
+    private void getSpriteBounds(PETSCIISprite sprite, RectF bounds) {
+        float pixelSize = fontSize / 8f;
+        bounds.set(borderSizeLeft + sprite.getX() * pixelSize, borderSizeTop + sprite.getY() * pixelSize,
+                borderSizeLeft + (sprite.getX() + sprite.getDisplayWidth()) * pixelSize,
+                borderSizeTop + (sprite.getY() + sprite.getDisplayHeight()) * pixelSize);
+    }
+
+    /**
+     * Invalidate area covered by a sprite <p><i>Called by sprites before and after every change</i></p>
+     */
+    void invalidateSprite(PETSCIISprite sprite) {
+        getSpriteBounds(sprite, spriteBounds);
+        markRowsDirty((int) Math.floor((spriteBounds.top - borderSizeTop) / fontSize),
+                (int) Math.floor((spriteBounds.bottom - borderSizeTop) / fontSize));
+        invalidate((int) Math.floor(spriteBounds.left), (int) Math.floor(spriteBounds.top), (int) Math.ceil(spriteBounds.right),
+                (int) Math.ceil(spriteBounds.bottom));
+    }
+
+    /**
+     * Return character set used for multicolor glyphs, the bundled font is rasterized on first use if no custom
+     * character set is defined
+     */
+    private PETSCIICharset getMulticolorCharset() {
+
+        if (charset != null) {
+            return charset;
+        }
+
+        if (fontCharset == null) {
+            fontCharset = PETSCIICharset.fromTypeface(textTypeface, PETSCIIChars.UPPERCASE);
+        }
+
+        return fontCharset;
+    }
+
+    /**
+     * Return character set holding the glyph of given char, the bundled font is rasterized on first use if no custom
+     * character set is defined
+     */
+    PETSCIICharset getGlyphCharset(char chr) {
+
+        if (charset == null && PETSCIIChars.getScreenCode(PETSCIIChars.UPPERCASE, chr) == -1 &&
+                PETSCIIChars.getScreenCode(PETSCIIChars.LOWERCASE, chr) != -1) {
+            if (lowercaseFontCharset == null) {
+                lowercaseFontCharset = PETSCIICharset.fromTypeface(textTypeface, PETSCIIChars.LOWERCASE);
+            }
+            return lowercaseFontCharset;
+        }
+
+        return getMulticolorCharset();
+    }
+
+    /**
+     * Compose a row as it is drawn into given buffers <p><i>Used by exporters, must be called on the UI thread</i></p>
+     */
+    void composeRow(int y, char[] chars, int[] colors, int[] bkgColors, int[] multicolorCodes) {
+
+        line.bkgColor = (rasterBkgColors[y] != -1) ? rasterBkgColors[y] : backgroundColor;
+        composeRow(y, line);
+
+        System.arraycopy(line.chars, 0, chars, 0, screenWidth);
+        System.arraycopy(line.colors, 0, colors, 0, screenWidth);
+
+        if (charMode == MODE_EXTENDED_BACKGROUND) {
+            System.arraycopy(line.bkgColors, 0, bkgColors, 0, screenWidth);
+        } else {
+            Arrays.fill(bkgColors, line.bkgColor);
+        }
+
+        if (line.multicolorCount > 0) {
+            System.arraycopy(line.multicolorCodes, 0, multicolorCodes, 0, screenWidth);
+        } else {
+            Arrays.fill(multicolorCodes, -1);
+        }
+    }
+
+    /**
+     * Return border color of a row including raster border color
+     */
+    int getRowBorderColor(int y) {
+        return (rasterBorderColors[y] != -1) ? rasterBorderColors[y] : borderColor;
+    }
+
+    @Override
+    public boolean onTouch(View view, MotionEvent event) {
+
+        // let zoom gesture consume events while in progress
+        if (zoomEnabled) {
+            zoomDetector.onTouchEvent(event);
+            if (zoomBitmap != null) {
+                return true;
+            }
+        }
+
+        // drag to browse scrollback
+        if (scrollback != null) {
+            if (event.getAction() == MotionEvent.ACTION_DOWN) {
+                scrollTouchY = event.getY();
+                scrollTouchPosition = scrollbackPosition;
+            } else if (event.getAction() == MotionEvent.ACTION_MOVE) {
+                setScrollbackPosition(scrollTouchPosition + (int) ((event.getY() - scrollTouchY) / fontSize));
+            }
+        }
+
+        if (listener != null || hotspotListener != null) {
+
+            int x = -1;
+
+            // check if x is in horizontal screen bounds
+            if (event.getX() > borderSizeLeft && event.getX() < getViewWidth() - borderSizeRight) {
+                x = (int) ((event.getX() - borderSizeLeft) / fontSize);
+            }
+
+            int y = -1;
+
+            // check if y is in vertical screen bounds
+            if (event.getY() > borderSizeTop && event.getY() < getViewHeight() - borderSizeBottom) {
+                y = (int) ((event.getY() - borderSizeTop) / fontSize);
+            }
+
+            // skip move samples within the same cell
+            if (cellMovesOnly && event.getAction() == MotionEvent.ACTION_MOVE && x == lastTouchX && y == lastTouchY) {
+                return true;
+            }
+            lastTouchX = x;
+            lastTouchY = y;
+
+            // notify listener
+            if (listener != null) {
+                listener.onClick(event.getAction(), x, y);
+            }
+
+            // notify hotspot listener
+            if (hotspotListener != null && x != -1 && y != -1) {
+                int id = hotspotGrid[x + y * screenWidth];
+                if (id != -1) {
+                    hotspotListener.onHotspot(event.getAction(), id, x, y);
+                }
+            }
+
+            return true;
+        }
+
+        return zoomEnabled || scrollback != null;
+    }
+
+    /**
+     * Line buffers of the row being composed and drawn, one per rendering thread
+     */
+    private static class LineBuffers {
+
+        private final char[] chars;
+        private final int[] colors;
+        private final int[] bkgColors;
+        private final int[] multicolorCodes;
+        private int multicolorCount;
+        private int bkgColor;
+        private final Rect glyphBounds = new Rect();
+        private final Rect cellBounds = new Rect();
+        private final RectF spriteBounds = new RectF();
+
+        private LineBuffers(int screenWidth) {
+            chars = new char[screenWidth];
+            colors = new int[screenWidth];
+            bkgColors = new int[screenWidth];
+            multicolorCodes = new int[screenWidth];
+        }
+    }
+
+    /**
+     * Band of rows rendered into its own tile
+     */
+    private class RenderBand {
+
+        private final int fromY;
+        private final int toY;
+        private final Bitmap bitmap;
+        private final Canvas canvas;
+        private final LineBuffers line;
+        private final int[] versions;
+        private int renderedGlobalVersion;
+        private boolean rendered;
+
+        private RenderBand(int fromY, int toY) {
+            this.fromY = fromY;
+            this.toY = toY;
+            bitmap = Bitmap.createBitmap(screenWidth * fontSize, (toY - fromY + 1) * fontSize, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(bitmap);
+            line = new LineBuffers(screenWidth);
+            versions = new int[toY - fromY + 1];
+        }
+
+        /**
+         * Return true if any row changed since the band was rendered
+         */
+        private boolean isDirty() {
+
+            if (!rendered || renderedGlobalVersion != globalVersion) {
+                return true;
+            }
+
+            for (int y = fromY; y <= toY; y++) {
+                if (versions[y - fromY] != rowVersions[y]) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Remember row versions being rendered
+         */
+        private void markRendered() {
+            System.arraycopy(rowVersions, fromY, versions, 0, versions.length);
+            renderedGlobalVersion = globalVersion;
+            rendered = true;
+        }
+
+        /**
+         * Render rows into the tile
+         */
+        private void render() {
+
+            // draw in view coordinates
+            canvas.save();
+            canvas.translate(-borderSizeLeft, -(borderSizeTop + fromY * fontSize));
+            canvas.drawRect(borderSizeLeft, borderSizeTop + fromY * fontSize, borderSizeLeft + screenWidth * fontSize,
+                    borderSizeTop + (toY + 1) * fontSize, backgroundPaint);
+
+            for (int y = fromY; y <= toY; y++) {
+                drawRow(canvas, y, line);
+            }
+
+            canvas.restore();
+        }
+    }
+
+    /**
+     * BandWorker <p><i>Renders its share of dirty bands whenever the UI thread publishes a frame, parked in between</i></p>
+     */
+    private class BandWorker extends Thread {
+
+        private final int index;
+        private final int step;
+        private int renderedGeneration;
+        private volatile boolean stopped;
+
+        private BandWorker(int index, int step, int generation) {
+            super("PETSCIIView band " + index);
+            this.index = index;
+            this.step = step;
+            renderedGeneration = generation;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+
+            while (true) {
+
+                // wait for the next frame
+                while (!stopped && bandGeneration == renderedGeneration) {
+                    LockSupport.park(this);
+                }
+                if (stopped) {
+                    return;
+                }
+                renderedGeneration = bandGeneration;
+
+                try {
+                    renderBandShare(index, step);
+                } catch (RuntimeException e) {
+                    bandError = e;
+                }
+
+                // the last thread to finish wakes the UI thread
+                if (pendingBandWorkers.decrementAndGet() == 0) {
+                    LockSupport.unpark(bandWaiter);
+                }
+            }
+        }
+    }
+
+    /**
+     * ZoomListener <p><i>Scales a cached rendering of the view during the gesture, font is re-rasterized only when the gesture ends</i></p>
+     */
+    private class ZoomListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+
+        @Override
+        public boolean onScaleBegin(ScaleGestureDetector detector) {
+
+            // cache current rendering
+            zoomBitmap = Bitmap.createBitmap(getViewWidth(), getViewHeight(), Bitmap.Config.ARGB_8888);
+            drawScreen(new Canvas(zoomBitmap));
+
+            zoomScale = 1f;
+            zoomFocusX = detector.getFocusX();
+            zoomFocusY = detector.getFocusY();
+
+            return true;
+        }
+
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+
+            // keep scale within allowed font sizes
+            zoomScale *= detector.getScaleFactor();
+            zoomScale = Math.max((float) zoomMinFontSize / fontSize, Math.min(zoomScale, (float) zoomMaxFontSize / fontSize));
+            zoomFocusX = detector.getFocusX();
+            zoomFocusY = detector.getFocusY();
+
+            invalidate();
+
+            return true;
+        }
+
+        @Override
+        public void onScaleEnd(ScaleGestureDetector detector) {
+
+            // release cached rendering
+            zoomBitmap.recycle();
+            zoomBitmap = null;
+
+            // re-rasterize at final scale
+            int size = Math.max(zoomMinFontSize, Math.min(Math.round(fontSize * zoomScale), zoomMaxFontSize));
+            if (size != fontSize) {
+                applyZoomFontSize(size);
+            }
+
+            invalidate();
+        }
+    }
+
+    /****************************************************************************************************
+     * HELPER METHODS
+     ***************************************************************************************************/
+
+    /**
+     * Return view width
+     */
+    private int getViewWidth() {
+        return borderSizeLeft + screenWidth * fontSize + borderSizeRight;
+    }
+
+    /**
+     * Return view height
+     */
+    private int getViewHeight() {
+        return borderSizeTop + screenHeight * fontSize + borderSizeBottom;
+    }
+
+    /**
+     * Return screen RAM <p><i>Live buffer shared with helper classes, must not be modified outside the view</i></p>
+     */
+    char[] getScreenRam() {
+        return screenRam;
+    }
+
+    /**
+     * Return color RAM <p><i>Live buffer shared with helper classes, must not be modified outside the view</i></p>
+     */
+    int[] getColorRam() {
+        return colorRam;
+    }
+
+    /**
+     * Invalidate cells containing given char <p><i>Called when a glyph of the custom character set changes</i></p>
+     */
+    void invalidateChar(char chr) {
+
+        for (int y = 0; y < screenHeight; y++) {
+
+            int fromX = -1;
+            int toX = -1;
+
+            for (int x = 0; x < screenWidth; x++) {
+                if (screenRam[x + y * screenWidth] == chr) {
+                    if (fromX == -1) {
+                        fromX = x;
+                    }
+                    toX = x;
+                }
+            }
+
+            if (fromX != -1) {
+                invalidateCells(fromX, y, toX, y);
+            }
+        }
+    }
+
+    /**
+     * Apply zoomed font size and scale border proportionally (measures view)
+     */
+    private void applyZoomFontSize(int size) {
+        borderSizeLeft = borderSizeLeft * size / fontSize;
+        borderSizeTop = borderSizeTop * size / fontSize;
+        borderSizeRight = borderSizeRight * size / fontSize;
+        borderSizeBottom = borderSizeBottom * size / fontSize;
+        fontSize = size;
+        initFontSize();
+        requestLayout();
+    }
+
+    /**
+     * Swap screen and color RAM with a screen buffer and redraw the screen
+     */
+    private void swapBuffer(PETSCIIScreenBuffer buffer) {
+
+        if (buffer.getScreenWidth() == screenWidth && buffer.getScreenHeight() == screenHeight) {
+
+            char[] previousScreenRam = screenRam;
+            int[] previousColorRam = colorRam;
+            screenRam = buffer.getScreenRam();
+            colorRam = buffer.getColorRam();
+            buffer.setRam(previousScreenRam, previousColorRam);
+
+            // record only cells which differ from the replaced screen
+            if (recorder != null) {
+                for (int i = 0; i < screenRam.length; i++) {
+                    if (screenRam[i] != previousScreenRam[i] || colorRam[i] != previousColorRam[i]) {
+                        recordCells(i, i + 1);
+                    }
+                }
+            }
+
+            // recorded changes refer to the replaced screen
+            if (history != null) {
+                history.clear();
+            }
+
+            invalidateRows(0, screenHeight - 1);
+        }
+
+        buffer.setCommitPending(false);
+    }
+
+    /**
+     * Post decoding of the published screen bus frame <p><i>Called by the screen bus on the emulator thread</i></p>
+     */
+    void postScreenBusSync() {
+        mainHandler.post(screenBusSyncRunnable);
+    }
+
+    /**
+     * Decode screen bus rows into screen and color RAM and redraw changed cells <p><i>Only rows written since the last
+     * sync are decoded unless all rows are requested</i></p>
+     */
+    private void syncScreenBus(boolean all) {
+
+        PETSCIIScreenBus bus = screenBus;
+        if (bus == null) {
+            return;
+        }
+
+        // read frame first so rows written before it was published are visible
+        bus.clearSyncPending();
+        bus.getFrame();
+
+        if (bus.getScreenWidth() != screenWidth || bus.getScreenHeight() != screenHeight) {
+            return;
+        }
+
+        char[] codeChars = bus.isLowercase() ? PETSCIIChars.LOWERCASE : PETSCIIChars.UPPERCASE;
+        ByteBuffer screenBuffer = bus.getScreenBuffer();
+        ByteBuffer colorBuffer = bus.getColorBuffer();
+
+        for (int y = 0; y < screenHeight; y++) {
+
+            int generation = bus.getRowGeneration(y);
+            if (!all && generation == screenBusGenerations[y]) {
+                continue;
+            }
+            screenBusGenerations[y] = generation;
+
+            // copy changed cells, keep bounds of the changes
+            int fromX = screenWidth;
+            int toX = -1;
+            for (int x = 0; x < screenWidth; x++) {
+                int offset = x + y * screenWidth;
+                int code = screenBuffer.get(offset) & 0xff;
+                char chr = (charset != null) ? charset.getChar(code) : codeChars[code];
+                int color = colorBuffer.get(offset) & 0x0f;
+                if (screenRam[offset] != chr || colorRam[offset] != color) {
+                    screenRam[offset] = chr;
+                    colorRam[offset] = color;
+                    recordCells(offset, offset + 1);
+                    fromX = Math.min(fromX, x);
+                    toX = x;
+                }
+            }
+
+            if (toX != -1) {
+
+                // recorded changes refer to the replaced cells
+                if (history != null) {
+                    history.clear();
+                }
+
+                invalidateCells(fromX, y, toX, y);
+            }
+        }
+    }
+
+    /**
+     * Check if a offset is in range <p><i>Must be called before writing to the screen or to the color RAM</i></p>
+     */
+    private boolean validOffset(int offset) {
+        return (offset >= 0 && offset < screenWidth * screenHeight);
+    }
+
+    /**
+     * Check if a color is in range <p><i>Must be called before writing to the color RAM</i></p>
+     */
+    private boolean validColor(int color) {
+        return (color >= 0 && color < PETSCIIColors.C64.length);
+    }
+
+    /**
+     * Return text translated like printed text
+     */
+    private char[] getSearchChars(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = translateChar(chars[i]);
+        }
+        return chars;
+    }
+
+    /**
+     * Write char and color at given position if it is on screen <p><i>Used by drawing primitives, which redraw once</i></p>
+     */
+    private void writeCell(int x, int y, char chr, int color) {
+        if (x >= 0 && x < screenWidth && y >= 0 && y < screenHeight) {
+            writeCell(x + y * screenWidth, chr, color);
+        }
+    }
+
+    /**
+     * Write char and color at given valid offset, recording the change but without invalidating it
+     */
+    private void writeCell(int offset, char chr, int color) {
+        if (history != null) {
+            history.record(offset, screenRam[offset], colorRam[offset], chr, color);
+        }
+        if (recorder != null) {
+            recorder.recordChar(offset, chr);
+            recorder.recordColor(offset, color);
+        }
+        screenRam[offset] = chr;
+        colorRam[offset] = color;
+    }
+
+    /**
+     * Write cells restored by the undo history without invalidating it and redraw their rows <p><i>Colors hold the old
+     * color in the upper and the new color in the lower four bits. Undo writes old colors in reverse order, so cells
+     * changed several times get their oldest value. Recorded by the event recorder but not by the history itself.</i></p>
+     */
+    void restoreCells(int[] offsets, char[] chars, byte[] colors, int count, boolean undo) {
+
+        int size = screenWidth * screenHeight;
+        int colorShift = undo ? 4 : 0;
+        int minOffset = size;
+        int maxOffset = -1;
+
+        for (int n = 0; n < count; n++) {
+
+            int i = undo ? count - 1 - n : n;
+            int offset = offsets[i];
+            if (offset < 0 || offset >= size) {
+                continue;
+            }
+
+            screenRam[offset] = chars[i];
+            colorRam[offset] = (colors[i] >> colorShift) & 0x0f;
+            minOffset = Math.min(minOffset, offset);
+            maxOffset = Math.max(maxOffset, offset);
+
+            if (recorder != null) {
+                recorder.recordChar(offset, screenRam[offset]);
+                recorder.recordColor(offset, colorRam[offset]);
+            }
+        }
+
+        if (maxOffset != -1) {
+            invalidateRows(minOffset / screenWidth, maxOffset / screenWidth);
+        }
+    }
+
+    /**
+     * Copy cells between rectangles of screen and color RAM without invalidating them <p><i>Rows and cells are copied
+     * in the order which keeps overlapping regions intact</i></p>
+     */
+    private void copyCells(int fromX, int fromY, int toX, int toY, int destX, int destY) {
+
+        // clip source to the screen
+        if (fromX < 0) {
+            destX -= fromX;
+            fromX = 0;
+        }
+        if (fromY < 0) {
+            destY -= fromY;
+            fromY = 0;
+        }
+        toX = Math.min(toX, screenWidth - 1);
+        toY = Math.min(toY, screenHeight - 1);
+
+        // clip destination to the screen
+        if (destX < 0) {
+            fromX -= destX;
+            destX = 0;
+        }
+        if (destY < 0) {
+            fromY -= destY;
+            destY = 0;
+        }
+        int width = Math.min(toX - fromX + 1, screenWidth - destX);
+        int height = Math.min(toY - fromY + 1, screenHeight - destY);
+
+        if (width <= 0 || height <= 0 || (fromX == destX && fromY == destY)) {
+            return;
+        }
+
+        // copy rows bottom up when moving down, cells right to left when moving right
+        boolean down = destY > fromY;
+        boolean right = destX > fromX;
+
+        for (int row = 0; row < height; row++) {
+
+            int y = down ? height - 1 - row : row;
+            int source = fromX + (fromY + y) * screenWidth;
+            int target = destX + (destY + y) * screenWidth;
+
+            // no cell has to be recorded, copy the whole row at once
+            if (history == null && recorder == null) {
+                System.arraycopy(screenRam, source, screenRam, target, width);
+                System.arraycopy(colorRam, source, colorRam, target, width);
+                continue;
+            }
+
+            for (int column = 0; column < width; column++) {
+                int x = right ? width - 1 - column : column;
+                writeCell(target + x, screenRam[source + x], colorRam[source + x]);
+            }
+        }
+    }
+
+    /**
+     * Invalidate cells limited to the screen
+     */
+    private void invalidateCellsClipped(int fromX, int fromY, int toX, int toY) {
+
+        fromX = Math.max(fromX, 0);
+        fromY = Math.max(fromY, 0);
+        toX = Math.min(toX, screenWidth - 1);
+        toY = Math.min(toY, screenHeight - 1);
+
+        if (fromX <= toX && fromY <= toY) {
+            invalidateCells(fromX, fromY, toX, toY);
+        }
+    }
+
+    /**
+     * Invalidate screen area covered by given rows
+     */
+    void invalidateRows(int fromY, int toY) {
+        invalidateCells(0, fromY, screenWidth - 1, toY);
+    }
+
+    /**
+     * Invalidate screen area covered by given cells
+     */
+    private void invalidateCells(int fromX, int fromY, int toX, int toY) {
+
+        markRowsDirty(fromY, toY);
+
+        // rows are shifted while scrolled back
+        if (scrollbackPosition > 0) {
+            markScreenDirty();
+            invalidate();
+            return;
+        }
+
+        invalidate(borderSizeLeft + fromX * fontSize, borderSizeTop + fromY * fontSize, borderSizeLeft + (toX + 1) * fontSize,
+                borderSizeTop + (toY + 1) * fontSize);
+    }
+
+    /**
+     * Write hotspot id into the hotspot grid
+     */
+    private void fillHotspot(int[] hotspot) {
+        for (int y = hotspot[2]; y <= hotspot[4]; y++) {
+            Arrays.fill(hotspotGrid, hotspot[1] + y * screenWidth, hotspot[3] + 1 + y * screenWidth, hotspot[0]);
+        }
+    }
+
+    /**
+     * Return true if cell at given offset is flashing
+     */
+    private boolean isFlashing(int offset) {
+        return (flashCells[offset >> 6] & (1L << offset)) != 0;
+    }
+
+    /**
+     * Schedule blink timer if the cursor or any cell blinks
+     */
+    private void scheduleBlink() {
+        if (!blinkScheduled && (cursorVisible || flashCount > 0)) {
+            blinkScheduled = postDelayed(blinkRunnable, BLINK_INTERVAL);
+        }
+    }
+
+    /**
+     * Toggle blink phase and invalidate only the cursor cell and rows with flashing cells
+     */
+    private void blink() {
+
+        blinkPhase = !blinkPhase;
+
+        if (cursorVisible && cursorX <= windowRight) {
+            invalidateCells(cursorX, cursorY, cursorX, cursorY);
+        }
+
+        // invalidate consecutive rows with flashing cells at once
+        int fromY = -1;
+        for (int y = 0; y <= screenHeight; y++) {
+            boolean flashing = y < screenHeight && flashRowCounts[y] > 0;
+            if (flashing && fromY == -1) {
+                fromY = y;
+            } else if (!flashing && fromY != -1) {
+                invalidateRows(fromY, y - 1);
+                fromY = -1;
+            }
+        }
+
+        // keep timer running until nothing blinks and the visible phase is restored
+        if (blinkPhase) {
+            blinkScheduled = postDelayed(blinkRunnable, BLINK_INTERVAL);
+        } else {
+            scheduleBlink();
+        }
+    }
+
+    /**
+     * Move cursor to the start of the next line, scrolling text window if needed
+     *
+     * @return true if text window has been scrolled
+     */
+    private boolean newLine() {
+
+        cursorX = windowLeft;
+
+        if (cursorY < windowBottom) {
+            cursorY++;
+            return false;
+        }
+
+        scrollTextWindow();
+
+        return true;
+    }
+
+    /**
+     * Scroll text window one line up and clear the last line with cursor color
+     */
+    private void scrollTextWindow() {
+
+        int width = windowRight - windowLeft + 1;
+
+        // keep the line scrolling off the top, scrolled back view stays on the same lines
+        if (scrollback != null && width == screenWidth) {
+            scrollback.push(screenRam, colorRam, windowTop * screenWidth, screenWidth);
+            if (scrollbackPosition > 0) {
+                setScrollbackPosition(scrollbackPosition + 1);
+            }
+        }
+
+        // record moved and cleared cells before they are overwritten
+        if (history != null) {
+            for (int y = windowTop; y < windowBottom; y++) {
+                int offset = windowLeft + y * screenWidth;
+                recordHistoryCopy(offset + screenWidth, offset, width);
+            }
+            int offset = windowLeft + windowBottom * screenWidth;
+            for (int i = offset; i < offset + width; i++) {
+                history.record(i, screenRam[i], colorRam[i], ' ', cursorColor);
+            }
+        }
+
+        // window spans whole rows, move them all at once
+        if (width == screenWidth) {
+            int length = (windowBottom - windowTop) * screenWidth;
+            System.arraycopy(screenRam, (windowTop + 1) * screenWidth, screenRam, windowTop * screenWidth, length);
+            System.arraycopy(colorRam, (windowTop + 1) * screenWidth, colorRam, windowTop * screenWidth, length);
+        }
+
+        // move row by row
+        else {
+            for (int y = windowTop; y < windowBottom; y++) {
+                int offset = windowLeft + y * screenWidth;
+                System.arraycopy(screenRam, offset + screenWidth, screenRam, offset, width);
+                System.arraycopy(colorRam, offset + screenWidth, colorRam, offset, width);
+            }
+        }
+
+        // clear last line
+        int offset = windowLeft + windowBottom * screenWidth;
+        Arrays.fill(screenRam, offset, offset + width, ' ');
+        Arrays.fill(colorRam, offset, offset + width, cursorColor);
+    }
+
+    /**
+     * Record cells about to be overwritten by cells copied from another offset in the undo history
+     */
+    private void recordHistoryCopy(int sourceOffset, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            history.record(offset + i, screenRam[offset + i], colorRam[offset + i], screenRam[sourceOffset + i],
+                    colorRam[sourceOffset + i]);
+        }
+    }
+
+    /**
+     * Print test picture
+     */
+    private void printTestPicture() {
+
+        int offset;
+
+        printText("**** PETSCII View " + BuildConfig.VERSION_NAME + " ****", 6, 1, cursorColor);
+
+        printText("CHARACTER MAP UPPERCASE:", 0, 4, cursorColor);
+
+        offset = 6 * screenWidth;
+        for (int i = 0; i < PETSCIIChars.UPPERCASE.length; i++) {
+            putChar(PETSCIIChars.UPPERCASE[i], offset);
+            putColor(cursorColor, offset);
+            offset++;
+        }
+
+        printText("CHARACTER MAP LOWERCASE:", 0, 15, cursorColor);
+
+        offset = 17 * screenWidth;
+        for (int i = 0; i < PETSCIIChars.LOWERCASE.length; i++) {
+            putChar(PETSCIIChars.LOWERCASE[i], offset);
+            putColor(cursorColor, offset);
+            offset++;
+        }
+    }
+
+    /****************************************************************************************************
+     * PETSCII VIEW API
+     ***************************************************************************************************/
+
+    // getters
+
+    /**
+     * Return screen width
+     */
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+
+    /**
+     * Return screen height
+     */
+    public int getScreenHeight() {
+        return screenHeight;
+    }
+
+    /**
+     * Return font size
+     */
+    public int getFontSize() {
+        return fontSize;
+    }
+
+    /**
+     * Return border size
+     */
+    public Rect getBorderSize() {
+        Rect size = new Rect();
+        getBorderSize(size);
+        return size;
+    }
+
+    /**
+     * Return border size in given rect <p><i>Does not allocate, for code running every frame</i></p>
+     */
+    public void getBorderSize(Rect size) {
+        size.set(borderSizeLeft, borderSizeTop, borderSizeRight, borderSizeBottom);
+    }
+
+    /**
+     * Return border color
+     */
+    public int getBorderColor() {
         return borderColor;
     }
 
     /**
-     * Return background color
+     * Return background color
+     */
+    public int getBkgColor() {
+        return backgroundColor;
+    }
+
+    /**
+     * Return extended background color register (0 is the background color) or -1 if register is not 0 - 3
+     */
+    public int getExtendedBkgColor(int register) {
+        return (register >= 0 && register < bkgColors.length) ? bkgColors[register] : -1;
+    }
+
+    /**
+     * Return character mode
+     */
+    public int getCharMode() {
+        return charMode;
+    }
+
+    /**
+     * Return cursor color
+     */
+    public int getCursorColor() {
+        return cursorColor;
+    }
+
+    /**
+     * Return cursor x position
+     */
+    public int getCursorX() {
+        return cursorX;
+    }
+
+    /**
+     * Return cursor y position
+     */
+    public int getCursorY() {
+        return cursorY;
+    }
+
+    /**
+     * Return custom character set or null if the bundled font is used
+     */
+    public PETSCIICharset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Return id of the hotspot at given position or -1 if there is none
+     */
+    public int getHotspot(int x, int y) {
+        return (x >= 0 && x < screenWidth && y >= 0 && y < screenHeight) ? hotspotGrid[x + y * screenWidth] : -1;
+    }
+
+    /**
+     * Return true if blinking cursor is shown
+     */
+    public boolean isCursorVisible() {
+        return cursorVisible;
+    }
+
+    /**
+     * Return true if pinch zoom is enabled
+     */
+    public boolean isZoomEnabled() {
+        return zoomEnabled;
+    }
+
+    // setters
+
+    /**
+     * Set screen width (resets and measures view)
+     */
+    public void setScreenWidth(int width) {
+        screenWidth = width;
+        initView();
+        requestLayout();
+    }
+
+    /**
+     * Set screen height (resets and measures view)
+     */
+    public void setScreenHeight(int height) {
+        screenHeight = height;
+        initView();
+        requestLayout();
+    }
+
+    /**
+     * Set font size (resets and remeasures view)
+     */
+    public void setFontSize(int size) {
+        fontSize = size;
+        initView();
+        requestLayout();
+    }
+
+    /**
+     * Set default border size depending on the font size (measures view)
+     */
+    public void setDefaultBorderSize() {
+        borderSizeLeft = 4 * fontSize;
+        borderSizeTop = 4 * fontSize + fontSize / 4;
+        borderSizeRight = 4 * fontSize;
+        borderSizeBottom = 4 * fontSize + fontSize / 4;
+        requestLayout();
+    }
+
+    /**
+     * Set border size (measures view)
+     */
+    public void setBorderSize(Rect size) {
+        borderSizeLeft = size.left;
+        borderSizeTop = size.top;
+        borderSizeRight = size.right;
+        borderSizeBottom = size.bottom;
+        requestLayout();
+    }
+
+    /**
+     * Set border color
+     */
+    public void setBorderColor(int color) {
+        if (validColor(color)) {
+            if (recorder != null) {
+                recorder.recordColorChange(PETSCIIRecorder.OP_BORDER_COLOR, 0, color);
+            }
+            borderColor = color;
+            borderPaint.setColor(Color.parseColor(PETSCIIColors.C64[color]));
+            markScreenDirty();
+        }
+    }
+
+    /**
+     * Set background color
+     */
+    public void setBkgColor(int color) {
+        if (validColor(color)) {
+            if (recorder != null) {
+                recorder.recordColorChange(PETSCIIRecorder.OP_BKG_COLOR, 0, color);
+            }
+            backgroundColor = color;
+            bkgColors[0] = color;
+            backgroundPaint.setColor(Color.parseColor(PETSCIIColors.C64[color]));
+            markScreenDirty();
+        }
+    }
+
+    /**
+     * Set extended background color register <p><i>Register 0 is the background color, registers 1 - 3 are used by
+     * extended background color mode and (1 - 2) by multicolor mode</i></p>
+     */
+    public void setExtendedBkgColor(int register, int color) {
+        if (register == 0) {
+            setBkgColor(color);
+        } else if (register > 0 && register < bkgColors.length && validColor(color)) {
+            if (recorder != null) {
+                recorder.recordColorChange(PETSCIIRecorder.OP_BKG_COLOR, register, color);
+            }
+            bkgColors[register] = color;
+            markScreenDirty();
+        }
+    }
+
+    /**
+     * Set character mode <p><i>{@link #MODE_STANDARD}, {@link #MODE_EXTENDED_BACKGROUND} (upper two bits of the screen
+     * code select one of four background colors, only the first 64 glyphs are available) or {@link #MODE_MULTICOLOR}
+     * (cells with color 8 - 15 use double-width pixels colored by background registers 1 - 2 and color RAM)</i></p>
+     */
+    public void setCharMode(int mode) {
+        if (mode >= MODE_STANDARD && mode <= MODE_MULTICOLOR) {
+            if (recorder != null) {
+                recorder.recordCharMode(mode);
+            }
+            charMode = mode;
+            markScreenDirty();
+        }
+    }
+
+    /**
+     * Set border color of a single character row, -1 restores the global border color
+     */
+    public void setRasterBorderColor(int y, int color) {
+        if (y >= 0 && y < screenHeight && (color == -1 || validColor(color))) {
+            if (recorder != null) {
+                recorder.recordRasterColor(PETSCIIRecorder.OP_RASTER_BORDER_COLOR, y, color);
+            }
+            rasterBorderColors[y] = color;
+            invalidate(0, borderSizeTop + y * fontSize, getViewWidth(), borderSizeTop + (y + 1) * fontSize);
+        }
+    }
+
+    /**
+     * Set background color of a single character row, -1 restores the global background color
+     */
+    public void setRasterBkgColor(int y, int color) {
+        if (y >= 0 && y < screenHeight && (color == -1 || validColor(color))) {
+            if (recorder != null) {
+                recorder.recordRasterColor(PETSCIIRecorder.OP_RASTER_BKG_COLOR, y, color);
+            }
+            rasterBkgColors[y] = color;
+            invalidateRows(y, y);
+        }
+    }
+
+    /**
+     * Set border and background colors of all character rows at once <p><i>Tables are indexed by row, -1 uses the
+     * global color, null leaves the table unchanged</i></p>
+     */
+    public void setRasterColors(int[] borderColors, int[] bkgColors) {
+
+        if (borderColors != null) {
+            for (int y = 0; y < screenHeight && y < borderColors.length; y++) {
+                rasterBorderColors[y] = validColor(borderColors[y]) ? borderColors[y] : -1;
+                if (recorder != null) {
+                    recorder.recordRasterColor(PETSCIIRecorder.OP_RASTER_BORDER_COLOR, y, rasterBorderColors[y]);
+                }
+            }
+        }
+
+        if (bkgColors != null) {
+            for (int y = 0; y < screenHeight && y < bkgColors.length; y++) {
+                rasterBkgColors[y] = validColor(bkgColors[y]) ? bkgColors[y] : -1;
+                if (recorder != null) {
+                    recorder.recordRasterColor(PETSCIIRecorder.OP_RASTER_BKG_COLOR, y, rasterBkgColors[y]);
+                }
+            }
+        }
+
+        markScreenDirty();
+        invalidate();
+    }
+
+    /**
+     * Restore global border and background color on all rows
+     */
+    public void clearRasterColors() {
+        if (recorder != null) {
+            recorder.recordClearRasterColors();
+        }
+        Arrays.fill(rasterBorderColors, -1);
+        Arrays.fill(rasterBkgColors, -1);
+        markScreenDirty();
+        invalidate();
+    }
+
+    /**
+     * Set cursor color
+     */
+    public void setCursorColor(int color) {
+        if (validColor(color)) {
+            if (recorder != null) {
+                recorder.recordColorChange(PETSCIIRecorder.OP_CURSOR_COLOR, 0, color);
+            }
+            cursorColor = color;
+            markScreenDirty();
+        }
+    }
+
+    /**
+     * Set cursor position <p><i>Position is limited to the current text window</i></p>
+     */
+    public void setCursorPosition(int x, int y) {
+
+        if (cursorVisible && cursorX <= windowRight) {
+            invalidateCells(cursorX, cursorY, cursorX, cursorY);
+        }
+
+        cursorX = Math.max(windowLeft, Math.min(x, windowRight));
+        cursorY = Math.max(windowTop, Math.min(y, windowBottom));
+
+        if (recorder != null) {
+            recorder.recordCursorPosition(cursorX, cursorY);
+        }
+
+        if (cursorVisible) {
+            invalidateCells(cursorX, cursorY, cursorX, cursorY);
+        }
+    }
+
+    /**
+     * Show or hide blinking cursor
+     */
+    public void setCursorVisible(boolean visible) {
+
+        cursorVisible = visible;
+
+        if (cursorX <= windowRight) {
+            invalidateCells(cursorX, cursorY, cursorX, cursorY);
+        }
+
+        scheduleBlink();
+    }
+
+    /**
+     * Set text window used by {@link #print} and {@link #println} and move cursor to its upper left corner
+     *
+     * @param fromX
+     *         from x position
+     * @param fromY
+     *         from y position
+     * @param toX
+     *         to x position
+     * @param toY
+     *         to y position
+     */
+    public void setTextWindow(int fromX, int fromY, int toX, int toY) {
+        if (fromX >= 0 && fromY >= 0 && toX < screenWidth && toY < screenHeight && fromX <= toX && fromY <= toY) {
+            if (recorder != null) {
+                recorder.recordTextWindow(fromX, fromY, toX, toY);
+            }
+            windowLeft = fromX;
+            windowTop = fromY;
+            windowRight = toX;
+            windowBottom = toY;
+            cursorX = fromX;
+            cursorY = fromY;
+        }
+    }
+
+    /**
+     * Reset text window to whole screen and move cursor to home
+     */
+    public void resetTextWindow() {
+        setTextWindow(0, 0, screenWidth - 1, screenHeight - 1);
+    }
+
+    /**
+     * Set custom character set, null restores rendering with the bundled font
+     */
+    public void setCharset(PETSCIICharset charset) {
+
+        if (this.charset != null) {
+            this.charset.detach(this);
+        }
+
+        this.charset = charset;
+
+        if (charset != null && getWindowToken() != null) {
+            charset.attach(this);
+        }
+
+        markScreenDirty();
+        invalidate();
+    }
+
+    /**
+     * Enable or disable screen RAM
+     */
+    public void setScreenRamEnabled(boolean enabled) {
+        screenRamEnabled = enabled;
+        markScreenDirty();
+    }
+
+    /**
+     * Enable or disable color RAM <p><i>If disabled, screen will be rendered with current cursor color</i></p>
+     */
+    public void setColorRamEnabled(boolean enabled) {
+        colorRamEnabled = enabled;
+        markScreenDirty();
+    }
+
+    /**
+     * Enable or disable banded rendering <p><i>Rows are rendered in bands on one thread per core into cached tiles and
+     * only bands with changed rows are rendered again, worth it for very large screens. Threads are kept parked
+     * between frames until banded rendering is disabled or the view is detached.</i></p>
+     */
+    public void setBandedRendering(boolean enabled) {
+        if (enabled != bandedRendering) {
+            bandedRendering = enabled;
+            bands = null;
+            if (!enabled) {
+                shutdownBandWorkers();
+            }
+            invalidate();
+        }
+    }
+
+    /**
+     * Enable or disable row caching <p><i>Every row is recorded into a picture which is replayed until a cell of the row
+     * changes, so unchanged rows are not drawn glyph by glyph again. Requires Android 6.0 to replay pictures on hardware
+     * accelerated canvases, older versions keep drawing rows directly. Ignored while banded rendering is enabled.</i></p>
+     */
+    public void setRowCaching(boolean enabled) {
+        if (enabled != rowCaching) {
+            rowCaching = enabled;
+            rowPictures = null;
+            invalidate();
+        }
+    }
+
+    /**
+     * Enable or disable pinch zoom <p><i>Zooming changes font size but keeps screen and color RAM intact</i></p>
+     */
+    public void setZoomEnabled(boolean enabled) {
+        zoomEnabled = enabled;
+    }
+
+    /**
+     * Set font size range allowed while zooming
+     */
+    public void setZoomFontSizeRange(int minSize, int maxSize) {
+        zoomMinFontSize = minSize;
+        zoomMaxFontSize = maxSize;
+    }
+
+    /**
+     * Translate text printed with printText, print, println and printFormattedText into given character set, so
+     * lowercase ASCII, typographic quotes or box drawing chars show the closest PETSCII glyph <p><i>See
+     * {@link PETSCIIChars#translate}</i></p>
+     *
+     * @param charset
+     *         {@link PETSCIIChars#UPPERCASE}, {@link PETSCIIChars#LOWERCASE} or null to disable translation
+     */
+    public void setTextTranslation(char[] charset) {
+        translationTable = (charset != null) ? PETSCIIChars.getTranslationTable(charset) : null;
+    }
+
+    /**
+     * Return char translated for the text translation set
+     */
+    @Override
+    public char translateChar(char chr) {
+        return (translationTable != null) ? translationTable[chr] : chr;
+    }
+
+    /**
+     * Set undo history <p><i>Records changes made by putChar, putColor, fill, print text, drawing methods and applied
+     * frames, including lines moved by scrolling the text window; null disables recording</i></p>
+     */
+    public void setHistory(PETSCIIHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * Set event recorder <p><i>Starts a new log with the current screen, then records every change until the recorder
+     * is replaced or null is set</i></p>
+     */
+    public void setRecorder(PETSCIIRecorder recorder) {
+
+        this.recorder = recorder;
+
+        if (recorder == null) {
+            return;
+        }
+
+        recorder.begin();
+        recordScreen();
+    }
+
+    /**
+     * Record screen size and the complete screen state, players continue from it
+     */
+    private void recordScreen() {
+
+        recorder.recordScreenSize(screenWidth, screenHeight);
+        recorder.recordColorChange(PETSCIIRecorder.OP_BORDER_COLOR, 0, borderColor);
+        for (int register = 0; register < bkgColors.length; register++) {
+            recorder.recordColorChange(PETSCIIRecorder.OP_BKG_COLOR, register, bkgColors[register]);
+        }
+        recorder.recordColorChange(PETSCIIRecorder.OP_CURSOR_COLOR, 0, cursorColor);
+        recorder.recordCharMode(charMode);
+        recorder.recordTextWindow(windowLeft, windowTop, windowRight, windowBottom);
+        recorder.recordClearRasterColors();
+        for (int y = 0; y < screenHeight; y++) {
+            if (rasterBorderColors[y] != -1) {
+                recorder.recordRasterColor(PETSCIIRecorder.OP_RASTER_BORDER_COLOR, y, rasterBorderColors[y]);
+            }
+            if (rasterBkgColors[y] != -1) {
+                recorder.recordRasterColor(PETSCIIRecorder.OP_RASTER_BKG_COLOR, y, rasterBkgColors[y]);
+            }
+        }
+        recordCells(0, screenWidth * screenHeight);
+        for (int i = 0; i < screenWidth * screenHeight; i++) {
+            if (isFlashing(i)) {
+                recorder.recordFlash(i, true);
+            }
+        }
+        recorder.recordCursorPosition(cursorX, cursorY);
+    }
+
+    /**
+     * Attach emulator screen bus, screen and color RAM then follow the frames published by the bus <p><i>Bus writes are
+     * not recorded, the undo history is cleared whenever they change the screen</i></p>
+     *
+     * @param bus
+     *         screen bus of the same size as the screen or null to detach it
+     */
+    public void setScreenBus(PETSCIIScreenBus bus) {
+
+        if (bus != null && (bus.getScreenWidth() != screenWidth || bus.getScreenHeight() != screenHeight)) {
+            throw new IllegalArgumentException("Screen bus size must match screen size");
+        }
+
+        if (screenBus != null) {
+            screenBus.setView(null);
+        }
+
+        screenBus = bus;
+
+        if (bus != null) {
+            screenBusGenerations = new int[screenHeight];
+            bus.setView(this);
+            syncScreenBus(true);
+        }
+    }
+
+    /**
+     * Return screen bus
+     */
+    public PETSCIIScreenBus getScreenBus() {
+        return screenBus;
+    }
+
+    /**
+     * Set scrollback keeping lines which scroll off the top of the text window <p><i>Only lines of text windows
+     * spanning whole rows are kept, dragging the screen down browses the scrollback</i></p>
+     *
+     * @param scrollback
+     *         scrollback or null to disable it
+     */
+    public void setScrollback(PETSCIIScrollback scrollback) {
+        this.scrollback = scrollback;
+        setScrollbackPosition(0);
+    }
+
+    /**
+     * Return scrollback
+     */
+    public PETSCIIScrollback getScrollback() {
+        return scrollback;
+    }
+
+    /**
+     * Scroll back given number of lines, 0 shows the live screen
+     */
+    public void setScrollbackPosition(int lines) {
+
+        int position = (scrollback != null) ? Math.max(0, Math.min(lines, scrollback.getLineCount())) : 0;
+
+        if (position != scrollbackPosition) {
+            scrollbackPosition = position;
+            markScreenDirty();
+            invalidate();
+        }
+    }
+
+    /**
+     * Return number of lines the view is scrolled back
+     */
+    public int getScrollbackPosition() {
+        return scrollbackPosition;
+    }
+
+    /**
+     * Report move events only when the cell under the finger changes
+     */
+    public void setCellMovesOnly(boolean enabled) {
+        cellMovesOnly = enabled;
+    }
+
+    /**
+     * Add rectangular hotspot <p><i>Hotspots added later cover earlier ones</i></p>
+     *
+     * @param id
+     *         hotspot id (0 or greater)
+     * @param fromX
+     *         from x position
+     * @param fromY
+     *         from y position
+     * @param toX
+     *         to x position
+     * @param toY
+     *         to y position
+     */
+    public void addHotspot(int id, int fromX, int fromY, int toX, int toY) {
+
+        fromX = Math.max(fromX, 0);
+        fromY = Math.max(fromY, 0);
+        toX = Math.min(toX, screenWidth - 1);
+        toY = Math.min(toY, screenHeight - 1);
+
+        if (id >= 0 && fromX <= toX && fromY <= toY) {
+            int[] hotspot = {id, fromX, fromY, toX, toY};
+            hotspots.add(hotspot);
+            fillHotspot(hotspot);
+        }
+    }
+
+    /**
+     * Remove all hotspots with given id
+     */
+    public void removeHotspot(int id) {
+
+        boolean removed = false;
+        for (int i = hotspots.size() - 1; i >= 0; i--) {
+            if (hotspots.get(i)[0] == id) {
+                hotspots.remove(i);
+                removed = true;
+            }
+        }
+
+        // rebuild grid from remaining hotspots
+        if (removed) {
+            Arrays.fill(hotspotGrid, -1);
+            for (int[] hotspot : hotspots) {
+                fillHotspot(hotspot);
+            }
+        }
+    }
+
+    /**
+     * Remove all hotspots
+     */
+    public void clearHotspots() {
+        hotspots.clear();
+        Arrays.fill(hotspotGrid, -1);
+    }
+
+    /**
+     * Set hotspot callback listener
+     */
+    public void setHotspotListener(PETSCIIHotspotListener listener) {
+        this.hotspotListener = listener;
+    }
+
+    /**
+     * Add transparent character layer on top of already added layers <p><i>Layers are removed when the screen size
+     * changes</i></p>
+     */
+    public PETSCIILayer addLayer() {
+        PETSCIILayer layer = new PETSCIILayer(this, screenWidth, screenHeight);
+        layers.add(layer);
+        return layer;
+    }
+
+    /**
+     * Remove layer and redraw the cells it covered
+     */
+    public void removeLayer(PETSCIILayer layer) {
+        if (layers.remove(layer)) {
+            layer.invalidateOpaqueRows();
+        }
+    }
+
+    /**
+     * Add sprite on top of already added sprites
+     */
+    public void addSprite(PETSCIISprite sprite) {
+        if (!sprites.contains(sprite)) {
+            sprites.add(sprite);
+            sprite.setView(this);
+            invalidateSprite(sprite);
+        }
+    }
+
+    /**
+     * Remove sprite
+     */
+    public void removeSprite(PETSCIISprite sprite) {
+        if (sprites.remove(sprite)) {
+            invalidateSprite(sprite);
+            sprite.setView(null);
+        }
+    }
+
+    /**
+     * Set callback listener
+     */
+    public void setListener(PETSCIIListener listener) {
+        this.listener = listener;
+    }
+
+    // screen manipulation
+
+    /**
+     * Put color to color RAM at given position
+     *
+     * @param color
+     *         color
+     * @param x
+     *         x position
+     * @param y
+     *         y position
+     */
+    public void putColor(int color, int x, int y) {
+        putColor(color, x + y * screenWidth);
+    }
+
+    /**
+     * Put color to color RAM at given offset
+     *
+     * @param color
+     *         color
+     * @param offset
+     *         offset position
      */
-    public int getBkgColor() {
-        return backgroundColor;
+    public void putColor(int color, int offset) {
+        if (validOffset(offset)) {
+            if (validColor(color)) {
+                if (history != null) {
+                    history.record(offset, screenRam[offset], colorRam[offset], screenRam[offset], color);
+                }
+                if (recorder != null) {
+                    recorder.recordColor(offset, color);
+                }
+                colorRam[offset] = color;
+                rowVersions[offset / screenWidth]++;
+            }
+        }
     }
 
     /**
-     * Return cursor color
+     * Fill color RAM with given color
+     *
+     * @param color
+     *         fill color
      */
-    public int getCursorColor() {
-        return cursorColor;
+    public void fillWithColor(int color) {
+        for (int i = 0; i < screenWidth * screenHeight; i++) {
+            putColor(color, i);
+        }
     }
 
-    // setters
+    /**
+     * Fill portion of color RAM with given color
+     *
+     * @param color
+     *         fill color
+     * @param fromX
+     *         from x position
+     * @param fromY
+     *         from y position
+     * @param toX
+     *         to x position
+     * @param toY
+     *         to y position
+     */
+    public void fillWithColor(int color, int fromX, int fromY, int toX, int toY) {
+        for (int y = fromY; y <= toY; y++) {
+            for (int x = fromX; x <= toX; x++) {
+                putColor(color, x, y);
+            }
+        }
+    }
 
     /**
-     * Set screen width (resets and measures view)
+     * Set or clear flash attribute at given position <p><i>Flashing cells blink together with the cursor</i></p>
+     *
+     * @param flash
+     *         flash attribute
+     * @param x
+     *         x position
+     * @param y
+     *         y position
      */
-    public void setScreenWidth(int width) {
-        screenWidth = width;
-        initView();
-        requestLayout();
+    public void putFlash(boolean flash, int x, int y) {
+        putFlash(flash, x + y * screenWidth);
     }
 
     /**
-     * Set screen height (resets and measures view)
+     * Set or clear flash attribute at given offset
+     *
+     * @param flash
+     *         flash attribute
+     * @param offset
+     *         offset position
      */
-    public void setScreenHeight(int height) {
-        screenHeight = height;
-        initView();
-        requestLayout();
+    public void putFlash(boolean flash, int offset) {
+        if (validOffset(offset) && flash != isFlashing(offset)) {
+            if (recorder != null) {
+                recorder.recordFlash(offset, flash);
+            }
+            flashCells[offset >> 6] ^= 1L << offset;
+            flashRowCounts[offset / screenWidth] += flash ? 1 : -1;
+            flashCount += flash ? 1 : -1;
+            invalidateCells(offset % screenWidth, offset / screenWidth, offset % screenWidth, offset / screenWidth);
+            scheduleBlink();
+        }
     }
 
     /**
-     * Set font size (resets and remeasures view)
+     * Set or clear flash attribute of all cells
+     *
+     * @param flash
+     *         flash attribute
      */
-    public void setFontSize(int size) {
-        fontSize = size;
-        initView();
-        requestLayout();
+    public void fillWithFlash(boolean flash) {
+        fillWithFlash(flash, 0, 0, screenWidth - 1, screenHeight - 1);
     }
 
     /**
-     * Set default border size depending on the font size (measures view)
+     * Set or clear flash attribute of a portion of the screen
+     *
+     * @param flash
+     *         flash attribute
+     * @param fromX
+     *         from x position
+     * @param fromY
+     *         from y position
+     * @param toX
+     *         to x position
+     * @param toY
+     *         to y position
      */
-    public void setDefaultBorderSize() {
-        borderSizeLeft = 4 * fontSize;
-        borderSizeTop = 4 * fontSize + fontSize / 4;
-        borderSizeRight = 4 * fontSize;
-        borderSizeBottom = 4 * fontSize + fontSize / 4;
-        requestLayout();
+    public void fillWithFlash(boolean flash, int fromX, int fromY, int toX, int toY) {
+        for (int y = fromY; y <= toY; y++) {
+            for (int x = fromX; x <= toX; x++) {
+                putFlash(flash, x, y);
+            }
+        }
     }
 
     /**
-     * Set border size (measures view)
+     * Put char to screen RAM at given position
+     *
+     * @param chr
+     *         char
+     * @param x
+     *         x position
+     * @param y
+     *         y position
      */
-    public void setBorderSize(Rect size) {
-        borderSizeLeft = size.left;
-        borderSizeTop = size.top;
-        borderSizeRight = size.right;
-        borderSizeBottom = size.bottom;
-        requestLayout();
+    public void putChar(char chr, int x, int y) {
+        putChar(chr, x + y * screenWidth);
     }
 
     /**
-     * Set border color
+     * Put char to screen RAM at given offset
+     *
+     * @param chr
+     *         char
+     * @param offset
+     *         offset position
      */
-    public void setBorderColor(int color) {
-        if (validColor(color)) {
-            borderColor = color;
-            borderPaint.setColor(Color.parseColor(PETSCIIColors.C64[color]));
+    public void putChar(char chr, int offset) {
+        if (validOffset(offset)) {
+            if (history != null) {
+                history.record(offset, screenRam[offset], colorRam[offset], chr, colorRam[offset]);
+            }
+            if (recorder != null) {
+                recorder.recordChar(offset, chr);
+            }
+            screenRam[offset] = chr;
+            rowVersions[offset / screenWidth]++;
+        }
+    }
+
+    /**
+     * Fill screen RAM with given char
+     *
+     * @param chr
+     *         char
+     */
+    public void fillWithChar(char chr) {
+        for (int i = 0; i < screenWidth * screenHeight; i++) {
+            putChar(chr, i);
+        }
+    }
+
+    /**
+     * Fill portion of screen RAM with given char
+     *
+     * @param chr
+     *         char
+     * @param fromX
+     *         from x position
+     * @param fromY
+     *         from y position
+     * @param toX
+     *         to x position
+     * @param toY
+     *         to y position
+     */
+    public void fillWithChar(char chr, int fromX, int fromY, int toX, int toY) {
+        for (int y = fromY; y <= toY; y++) {
+            for (int x = fromX; x <= toX; x++) {
+                putChar(chr, x, y);
+            }
+        }
+    }
+
+    /**
+     * Draw frame with box drawing chars <p><i>Cells outside the screen are skipped, the frame is redrawn at once</i></p>
+     *
+     * @param fromX
+     *         left column
+     * @param fromY
+     *         top row
+     * @param toX
+     *         right column (greater than left column)
+     * @param toY
+     *         bottom row (greater than top row)
+     * @param color
+     *         frame color
+     * @param rounded
+     *         rounded corners (glyphs of the uppercase set)
+     */
+    public void drawFrame(int fromX, int fromY, int toX, int toY, int color, boolean rounded) {
+
+        if (fromX >= toX || fromY >= toY || !validColor(color)) {
+            return;
+        }
+
+        char[] chars = (charset != null) ? charset.getChars() : PETSCIIChars.UPPERCASE;
+
+        // edges
+        for (int x = fromX + 1; x < toX; x++) {
+            writeCell(x, fromY, chars[FRAME_HORIZONTAL], color);
+            writeCell(x, toY, chars[FRAME_HORIZONTAL], color);
+        }
+        for (int y = fromY + 1; y < toY; y++) {
+            writeCell(fromX, y, chars[FRAME_VERTICAL], color);
+            writeCell(toX, y, chars[FRAME_VERTICAL], color);
+        }
+
+        // corners
+        int[] corners = rounded ? FRAME_ROUNDED_CORNERS : FRAME_CORNERS;
+        writeCell(fromX, fromY, chars[corners[0]], color);
+        writeCell(toX, fromY, chars[corners[1]], color);
+        writeCell(fromX, toY, chars[corners[2]], color);
+        writeCell(toX, toY, chars[corners[3]], color);
+
+        invalidateCellsClipped(fromX, fromY, toX, toY);
+    }
+
+    /**
+     * Draw frame with square corners and fill its inside
+     *
+     * @param fromX
+     *         left column
+     * @param fromY
+     *         top row
+     * @param toX
+     *         right column (greater than left column)
+     * @param toY
+     *         bottom row (greater than top row)
+     * @param color
+     *         frame and fill color
+     * @param fillChar
+     *         char filling the inside
+     */
+    public void drawBox(int fromX, int fromY, int toX, int toY, int color, char fillChar) {
+
+        if (fromX >= toX || fromY >= toY || !validColor(color)) {
+            return;
+        }
+
+        for (int y = Math.max(fromY + 1, 0); y <= Math.min(toY - 1, screenHeight - 1); y++) {
+            for (int x = Math.max(fromX + 1, 0); x <= Math.min(toX - 1, screenWidth - 1); x++) {
+                writeCell(x + y * screenWidth, fillChar, color);
+            }
+        }
+
+        drawFrame(fromX, fromY, toX, toY, color, false);
+    }
+
+    /**
+     * Draw line of cells (Bresenham) <p><i>Cells outside the screen are skipped, the line is redrawn at once</i></p>
+     *
+     * @param fromX
+     *         start x position
+     * @param fromY
+     *         start y position
+     * @param toX
+     *         end x position
+     * @param toY
+     *         end y position
+     * @param chr
+     *         char
+     * @param color
+     *         color
+     */
+    public void drawLine(int fromX, int fromY, int toX, int toY, char chr, int color) {
+
+        if (!validColor(color)) {
+            return;
+        }
+
+        int dx = Math.abs(toX - fromX);
+        int dy = -Math.abs(toY - fromY);
+        int stepX = (fromX < toX) ? 1 : -1;
+        int stepY = (fromY < toY) ? 1 : -1;
+        int error = dx + dy;
+        int x = fromX;
+        int y = fromY;
+
+        while (true) {
+
+            writeCell(x, y, chr, color);
+
+            if (x == toX && y == toY) {
+                break;
+            }
+
+            int error2 = 2 * error;
+            if (error2 >= dy) {
+                error += dy;
+                x += stepX;
+            }
+            if (error2 <= dx) {
+                error += dx;
+                y += stepY;
+            }
+        }
+
+        invalidateCellsClipped(Math.min(fromX, toX), Math.min(fromY, toY), Math.max(fromX, toX), Math.max(fromY, toY));
+    }
+
+    /**
+     * Fill area of cells connected to given position which share its char and color (scanline flood fill)
+     *
+     * @param x
+     *         x position
+     * @param y
+     *         y position
+     * @param chr
+     *         fill char
+     * @param color
+     *         fill color
+     */
+    public void floodFill(int x, int y, char chr, int color) {
+
+        if (x < 0 || x >= screenWidth || y < 0 || y >= screenHeight || !validColor(color)) {
+            return;
+        }
+
+        char targetChr = screenRam[x + y * screenWidth];
+        int targetColor = colorRam[x + y * screenWidth];
+        if (targetChr == chr && targetColor == color) {
+            return;
+        }
+
+        int dirtyFromX = x;
+        int dirtyFromY = y;
+        int dirtyToX = x;
+        int dirtyToY = y;
+
+        // stack of cell offsets where spans start
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = x + y * screenWidth;
+
+        while (stackSize > 0) {
+
+            int offset = stack[--stackSize];
+            if (screenRam[offset] != targetChr || colorRam[offset] != targetColor) {
+                continue;
+            }
+
+            // extend span to both sides
+            int spanY = offset / screenWidth;
+            int rowOffset = spanY * screenWidth;
+            int fromX = offset - rowOffset;
+            int toX = fromX;
+            while (fromX > 0 && screenRam[rowOffset + fromX - 1] == targetChr &&
+                    colorRam[rowOffset + fromX - 1] == targetColor) {
+                fromX--;
+            }
+            while (toX < screenWidth - 1 && screenRam[rowOffset + toX + 1] == targetChr &&
+                    colorRam[rowOffset + toX + 1] == targetColor) {
+                toX++;
+            }
+
+            for (int spanX = fromX; spanX <= toX; spanX++) {
+                writeCell(rowOffset + spanX, chr, color);
+            }
+
+            dirtyFromX = Math.min(dirtyFromX, fromX);
+            dirtyToX = Math.max(dirtyToX, toX);
+            dirtyFromY = Math.min(dirtyFromY, spanY);
+            dirtyToY = Math.max(dirtyToY, spanY);
+
+            // push one cell of every matching span above and below
+            for (int neighborY = spanY - 1; neighborY <= spanY + 1; neighborY += 2) {
+                if (neighborY < 0 || neighborY >= screenHeight) {
+                    continue;
+                }
+                int neighborOffset = neighborY * screenWidth;
+                boolean inSpan = false;
+                for (int spanX = fromX; spanX <= toX; spanX++) {
+                    boolean matches = screenRam[neighborOffset + spanX] == targetChr &&
+                            colorRam[neighborOffset + spanX] == targetColor;
+                    if (matches && !inSpan) {
+                        if (stackSize == stack.length) {
+                            stack = Arrays.copyOf(stack, 2 * stackSize);
+                        }
+                        stack[stackSize++] = neighborOffset + spanX;
+                    }
+                    inSpan = matches;
+                }
+            }
         }
+
+        invalidateCells(dirtyFromX, dirtyFromY, dirtyToX, dirtyToY);
     }
 
     /**
-     * Set background color
+     * Copy rectangular region of cells to another position <p><i>Overlapping regions are copied correctly, parts
+     * outside the screen are skipped</i></p>
+     *
+     * @param fromX
+     *         left column of the source
+     * @param fromY
+     *         top row of the source
+     * @param toX
+     *         right column of the source
+     * @param toY
+     *         bottom row of the source
+     * @param destX
+     *         left column of the destination
+     * @param destY
+     *         top row of the destination
      */
-    public void setBkgColor(int color) {
-        if (validColor(color)) {
-            backgroundColor = color;
-            backgroundPaint.setColor(Color.parseColor(PETSCIIColors.C64[color]));
-        }
+    public void copyRegion(int fromX, int fromY, int toX, int toY, int destX, int destY) {
+        copyCells(fromX, fromY, toX, toY, destX, destY);
+        invalidateCellsClipped(destX, destY, destX + toX - fromX, destY + toY - fromY);
     }
 
     /**
-     * Set cursor color
+     * Move rectangular region of cells to another position, uncovered source cells are filled with given char and
+     * color
+     *
+     * @param fromX
+     *         left column of the source
+     * @param fromY
+     *         top row of the source
+     * @param toX
+     *         right column of the source
+     * @param toY
+     *         bottom row of the source
+     * @param destX
+     *         left column of the destination
+     * @param destY
+     *         top row of the destination
+     * @param fillChar
+     *         char left behind
+     * @param fillColor
+     *         color left behind
      */
-    public void setCursorColor(int color) {
-        if (validColor(color)) {
-            cursorColor = color;
+    public void moveRegion(int fromX, int fromY, int toX, int toY, int destX, int destY, char fillChar, int fillColor) {
+
+        if (!validColor(fillColor)) {
+            return;
         }
-    }
 
-    /**
-     * Enable or disable screen RAM
-     */
-    public void setScreenRamEnabled(boolean enabled) {
-        screenRamEnabled = enabled;
-    }
+        copyCells(fromX, fromY, toX, toY, destX, destY);
 
-    /**
-     * Enable or disable color RAM <p><i>If disabled, screen will be rendered with current cursor color</i></p>
-     */
-    public void setColorRamEnabled(boolean enabled) {
-        colorRamEnabled = enabled;
-    }
+        // clear source cells not covered by the destination
+        int destToX = destX + toX - fromX;
+        int destToY = destY + toY - fromY;
+        for (int y = Math.max(fromY, 0); y <= Math.min(toY, screenHeight - 1); y++) {
+            for (int x = Math.max(fromX, 0); x <= Math.min(toX, screenWidth - 1); x++) {
+                if (x < destX || x > destToX || y < destY || y > destToY) {
+                    writeCell(x + y * screenWidth, fillChar, fillColor);
+                }
+            }
+        }
 
-    /**
-     * Set callback listener
-     */
-    public void setListener(PETSCIIListener listener) {
-        this.listener = listener;
+        invalidateCellsClipped(Math.min(fromX, destX), Math.min(fromY, destY), Math.max(toX, destToX), Math.max(toY, destToY));
     }
 
-    // screen manipulation
-
     /**
-     * Put color to color RAM at given position
+     * Find text in screen RAM <p><i>See {@link #findText(String, int)}</i></p>
      *
-     * @param color
-     *         color
-     * @param x
-     *         x position
-     * @param y
-     *         y position
+     * @param text
+     *         text
+     * @return offset of the first occurrence or -1
      */
-    public void putColor(int color, int x, int y) {
-        putColor(color, x + y * screenWidth);
+    public int findText(String text) {
+        return findText(text, 0);
     }
 
     /**
-     * Put color to color RAM at given offset
+     * Find text in screen RAM starting at given offset <p><i>Text is translated like printed text and must fit into one
+     * row. Rows are skipped by their char masks, which are updated only for rows written since the last search.</i></p>
      *
-     * @param color
-     *         color
-     * @param offset
-     *         offset position
+     * @param text
+     *         text
+     * @param fromOffset
+     *         offset where the search starts
+     * @return offset of the first occurrence at or after given offset or -1
      */
-    public void putColor(int color, int offset) {
-        if (validOffset(offset)) {
-            if (validColor(color)) {
-                colorRam[offset] = color;
+    public int findText(String text, int fromOffset) {
+
+        if (TextUtils.isEmpty(text) || text.length() > screenWidth) {
+            return -1;
+        }
+
+        char[] chars = getSearchChars(text);
+        long textMask = PETSCIIChars.getCharMask(chars, 0, chars.length);
+
+        for (int y = Math.max(fromOffset, 0) / screenWidth; y < screenHeight; y++) {
+
+            // update mask of a written row
+            int rowOffset = y * screenWidth;
+            if (rowCharMaskVersions[y] != rowVersions[y]) {
+                rowCharMasks[y] = PETSCIIChars.getCharMask(screenRam, rowOffset, screenWidth);
+                rowCharMaskVersions[y] = rowVersions[y];
+            }
+
+            if ((rowCharMasks[y] & textMask) != textMask) {
+                continue;
+            }
+
+            for (int x = Math.max(fromOffset - rowOffset, 0); x + chars.length <= screenWidth; x++) {
+                if (PETSCIIChars.regionMatches(screenRam, rowOffset + x, chars)) {
+                    return rowOffset + x;
+                }
             }
         }
+
+        return -1;
     }
 
     /**
-     * Fill color RAM with given color
+     * Find text in the scrollback <p><i>Scrolling back by (line count - index) lines shows the found line at the
+     * top</i></p>
      *
-     * @param color
-     *         fill color
+     * @param text
+     *         text
+     * @return index of the newest scrollback line containing the text or -1
      */
-    public void fillWithColor(int color) {
-        for (int i = 0; i < screenWidth * screenHeight; i++) {
-            putColor(color, i);
+    public int findTextInScrollback(String text) {
+
+        if (scrollback == null || TextUtils.isEmpty(text) || text.length() > screenWidth) {
+            return -1;
         }
+
+        return scrollback.findLine(getSearchChars(text));
     }
 
     /**
-     * Fill portion of color RAM with given color
+     * Compare a complete target frame against the current screen
      *
-     * @param color
-     *         fill color
-     * @param fromX
-     *         from x position
-     * @param fromY
-     *         from y position
-     * @param toX
-     *         to x position
-     * @param toY
-     *         to y position
+     * @param targetScreenRam
+     *         target screen RAM (screen width * screen height chars)
+     * @param targetColorRam
+     *         target color RAM (screen width * screen height colors)
+     * @param diff
+     *         receives changed spans
      */
-    public void fillWithColor(int color, int fromX, int fromY, int toX, int toY) {
-        for (int y = fromY; y <= toY; y++) {
-            for (int x = fromX; x <= toX; x++) {
-                putColor(color, x, y);
-            }
+    public void computeFrameDiff(char[] targetScreenRam, int[] targetColorRam, PETSCIIScreenDiff diff) {
+        if (targetScreenRam.length == screenRam.length && targetColorRam.length == colorRam.length) {
+            diff.compute(screenRam, colorRam, targetScreenRam, targetColorRam, screenWidth, screenHeight);
+        } else {
+            diff.clear();
         }
     }
 
     /**
-     * Put char to screen RAM at given position
+     * Apply a complete target frame, writing and invalidating only changed cells
      *
-     * @param chr
-     *         char
-     * @param x
-     *         x position
-     * @param y
-     *         y position
+     * @param targetScreenRam
+     *         target screen RAM (screen width * screen height chars)
+     * @param targetColorRam
+     *         target color RAM (screen width * screen height colors)
+     * @return number of changed cells
      */
-    public void putChar(char chr, int x, int y) {
-        putChar(chr, x + y * screenWidth);
+    public int applyFrame(char[] targetScreenRam, int[] targetColorRam) {
+        computeFrameDiff(targetScreenRam, targetColorRam, frameDiff);
+        applyFrame(targetScreenRam, targetColorRam, frameDiff);
+        return frameDiff.getChangedCells();
     }
 
     /**
-     * Put char to screen RAM at given offset
+     * Apply previously computed changes of a target frame <p><i>Each changed row invalidates only the bounding
+     * rectangle of its spans. Frames or diffs of a different screen size are ignored.</i></p>
      *
-     * @param chr
-     *         char
-     * @param offset
-     *         offset position
+     * @param targetScreenRam
+     *         target screen RAM (screen width * screen height chars)
+     * @param targetColorRam
+     *         target color RAM (screen width * screen height colors)
+     * @param diff
+     *         changed spans computed by {@link #computeFrameDiff}
      */
-    public void putChar(char chr, int offset) {
-        if (validOffset(offset)) {
-            screenRam[offset] = chr;
+    public void applyFrame(char[] targetScreenRam, int[] targetColorRam, PETSCIIScreenDiff diff) {
+
+        if (targetScreenRam.length != screenRam.length || targetColorRam.length != colorRam.length) {
+            return;
         }
-    }
 
-    /**
-     * Fill screen RAM with given char
-     *
-     * @param chr
-     *         char
-     */
-    public void fillWithChar(char chr) {
-        for (int i = 0; i < screenWidth * screenHeight; i++) {
-            putChar(chr, i);
+        if (!diff.isEmpty() && (diff.getScreenWidth() != screenWidth || diff.getScreenHeight() != screenHeight)) {
+            return;
+        }
+
+        int rowY = -1;
+        int rowFromX = 0;
+        int rowToX = 0;
+
+        for (int i = 0; i < diff.getSpanCount(); i++) {
+
+            int offset = diff.getSpanOffset(i);
+            int length = diff.getSpanLength(i);
+
+            // copy span
+            for (int j = offset; j < offset + length; j++) {
+                int color = validColor(targetColorRam[j]) ? targetColorRam[j] : colorRam[j];
+                if (history != null) {
+                    history.record(j, screenRam[j], colorRam[j], targetScreenRam[j], color);
+                }
+                screenRam[j] = targetScreenRam[j];
+                colorRam[j] = color;
+            }
+            recordCells(offset, offset + length);
+
+            // invalidate previous row bounds when a new row starts
+            if (diff.getSpanY(i) != rowY) {
+                if (rowY != -1) {
+                    invalidateCells(rowFromX, rowY, rowToX, rowY);
+                }
+                rowY = diff.getSpanY(i);
+                rowFromX = diff.getSpanFromX(i);
+            }
+            rowToX = diff.getSpanToX(i);
+        }
+
+        if (rowY != -1) {
+            invalidateCells(rowFromX, rowY, rowToX, rowY);
         }
     }
 
     /**
-     * Fill portion of screen RAM with given char
+     * Swap screen buffer with the displayed screen on the UI thread <p><i>May be called from any thread, buffers of
+     * different size are ignored. After the swap the buffer holds the previously displayed screen.</i></p>
      *
-     * @param chr
-     *         char
-     * @param fromX
-     *         from x position
-     * @param fromY
-     *         from y position
-     * @param toX
-     *         to x position
-     * @param toY
-     *         to y position
+     * @param buffer
+     *         screen buffer of the same size as the screen
      */
-    public void fillWithChar(char chr, int fromX, int fromY, int toX, int toY) {
-        for (int y = fromY; y <= toY; y++) {
-            for (int x = fromX; x <= toX; x++) {
-                putChar(chr, x, y);
+    public void commitBuffer(final PETSCIIScreenBuffer buffer) {
+
+        buffer.setCommitPending(true);
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                swapBuffer(buffer);
             }
-        }
+        });
     }
 
     /**
@@ -713,7 +3363,7 @@ public class PETSCIIView extends View implements View.OnTouchListener {
             // char
             else {
                 // put data to RAM
-                putChar(chr, offset);
+                putChar(translateChar(chr), offset);
                 putColor(color, offset);
                 offset++;
             }
@@ -721,139 +3371,140 @@ public class PETSCIIView extends View implements View.OnTouchListener {
     }
 
     /**
-     * Print formatted text on screen at given position with given color
+     * Print text at cursor position with cursor color <p><i>Text wraps at the text window edge and the window
+     * scrolls when the cursor passes its last line; only touched rows are invalidated</i></p>
      *
      * @param text
      *         text
-     * @param x
-     *         x position
-     * @param y
-     *         y position
-     * @param color
-     *         text color
      */
-    public void printFormattedText(String text, int x, int y, int color) {
-        printFormattedText(text, x + y * screenWidth, color);
+    public void print(String text) {
+        print(text, translationTable);
     }
 
     /**
-     * Print formatted text on screen at given offset with given color
-     *
-     * @param text
-     *         text
-     * @param offset
-     *         offset position
-     * @param color
-     *         text color
+     * Print text already translated for the screen, used to replay recorded text regardless of the text translation
+     * set on this view
      */
-    public void printFormattedText(String text, int offset, int color) {
+    void printTranslated(String text) {
+        print(text, null);
+    }
+
+    /**
+     * Print text at cursor position with cursor color, translating it with given table (may be null)
+     */
+    private void print(String text, char[] table) {
 
         // check if string is empty
         if (TextUtils.isEmpty(text)) {
             return;
         }
 
+        // record text as it appears on screen, so replay doesn't depend on translation of the target view
+        if (recorder != null) {
+            recorder.recordPrint(text, table);
+        }
+
         int textIndex = 0;
-        int lineStartOffset = offset;
-        boolean reverseEnabled = false;
+        int dirtyFromY = cursorY;
+        int dirtyToY = cursorY;
 
-        try {
-            while (textIndex != text.length()) {
+        while (textIndex != text.length()) {
 
-                // get char
-                char chr = text.charAt(textIndex);
+            // line break
+            if (text.charAt(textIndex) == 10) {
+                if (newLine()) {
+                    dirtyFromY = windowTop;
+                }
+                textIndex++;
+            }
 
-                // formatter
-                if (chr == '{') {
+            // chars
+            else {
+                // wrap if previous chars filled the line
+                if (cursorX > windowRight && newLine()) {
+                    dirtyFromY = windowTop;
+                }
 
-                    // clear screen
-                    if (text.startsWith(PETSCIIFormatter.CLR, textIndex + 1)) {
-                        fillWithChar(' ');
-                        offset = 0;
-                        textIndex += 5;
-                    }
+                // copy as many chars as fit into the line at once
+                int textEnd = Math.min(text.length(), textIndex + windowRight - cursorX + 1);
+                int lineBreak = text.indexOf(10, textIndex);
+                if (lineBreak != -1 && lineBreak < textEnd) {
+                    textEnd = lineBreak;
+                }
 
-                    // home
-                    else if (text.startsWith(PETSCIIFormatter.HOM, textIndex + 1)) {
-                        offset = 0;
-                        textIndex += 5;
+                int offset = cursorX + cursorY * screenWidth;
+                if (history != null) {
+                    for (int i = textIndex; i < textEnd; i++) {
+                        int cell = offset + i - textIndex;
+                        char chr = text.charAt(i);
+                        history.record(cell, screenRam[cell], colorRam[cell], (table != null) ? table[chr] : chr, cursorColor);
                     }
-
-                    // cursor up
-                    else if (text.startsWith(PETSCIIFormatter.CUP, textIndex + 1)) {
-                        String textNum = text.substring(textIndex + 5, textIndex + 5 + 2);
-                        offset -= Integer.valueOf(textNum) * screenWidth;
-                        textIndex += 8;
+                }
+                text.getChars(textIndex, textEnd, screenRam, offset);
+                if (table != null) {
+                    for (int i = offset; i < offset + textEnd - textIndex; i++) {
+                        screenRam[i] = table[screenRam[i]];
                     }
+                }
+                Arrays.fill(colorRam, offset, offset + textEnd - textIndex, cursorColor);
 
-                    // cursor down
-                    else if (text.startsWith(PETSCIIFormatter.CDN, textIndex + 1)) {
-                        String textNum = text.substring(textIndex + 5, textIndex + 5 + 2);
-                        offset += Integer.valueOf(textNum) * screenWidth;
-                        textIndex += 8;
-                    }
+                cursorX += textEnd - textIndex;
+                textIndex = textEnd;
+            }
 
-                    // cursor left
-                    else if (text.startsWith(PETSCIIFormatter.CLT, textIndex + 1)) {
-                        String textNum = text.substring(textIndex + 5, textIndex + 5 + 2);
-                        offset += Integer.valueOf(textNum);
-                        textIndex += 8;
-                    }
+            dirtyFromY = Math.min(dirtyFromY, cursorY);
+            dirtyToY = Math.max(dirtyToY, cursorY);
+        }
 
-                    // cursor right
-                    else if (text.startsWith(PETSCIIFormatter.CRT, textIndex + 1)) {
-                        String textNum = text.substring(textIndex + 5, textIndex + 5 + 2);
-                        offset -= Integer.valueOf(textNum);
-                        textIndex += 8;
-                    }
+        invalidateRows(dirtyFromY, dirtyToY);
+    }
 
-                    // cursor color
-                    else if (text.startsWith(PETSCIIFormatter.COL, textIndex + 1)) {
-                        String textNum = text.substring(textIndex + 5, textIndex + 5 + 2);
-                        color = Integer.valueOf(textNum);
-                        textIndex += 8;
-                    }
+    /**
+     * Print text at cursor position with cursor color and move cursor to the next line
+     *
+     * @param text
+     *         text
+     */
+    public void println(String text) {
 
-                    // reverse on
-                    else if (text.startsWith(PETSCIIFormatter.RON, textIndex + 1)) {
-                        reverseEnabled = true;
-                        textIndex += 5;
-                    }
+        print(text);
 
-                    // reverse off
-                    else if (text.startsWith(PETSCIIFormatter.ROF, textIndex + 1)) {
-                        reverseEnabled = false;
-                        textIndex += 5;
-                    }
+        if (recorder != null) {
+            recorder.recordNewLine();
+        }
 
-                    // unknown formatter
-                    else {
-                        printErrorMessage(PETSCIIFormatter.UNKNOWN_FORMATTER_ERROR, text, textIndex + 1);
-                        break;
-                    }
-                }
+        if (newLine()) {
+            invalidateRows(windowTop, windowBottom);
+        }
+    }
 
-                // line break
-                else if (chr == 10) {
-                    // update offsets
-                    offset = lineStartOffset + screenWidth;
-                    lineStartOffset = offset;
-                    textIndex++;
-                }
+    /**
+     * Print formatted text on screen at given position with given color
+     *
+     * @param text
+     *         text
+     * @param x
+     *         x position
+     * @param y
+     *         y position
+     * @param color
+     *         text color
+     */
+    public void printFormattedText(String text, int x, int y, int color) {
+        printFormattedText(text, x + y * screenWidth, color);
+    }
 
-                // char
-                else {
-                    // put data to RAM
-                    putChar(reverseEnabled ? getReversedChar(chr) : chr, offset);
-                    putColor(color, offset);
-                    textIndex++;
-                    offset++;
-                }
-            }
-        } catch (NumberFormatException e) {
-            printErrorMessage(PETSCIIFormatter.NUMBER_FORMAT_ERROR, text, textIndex + 5);
-        } catch (Exception e) {
-            printErrorMessage(PETSCIIFormatter.PARSING_ERROR, text, textIndex);
-        }
+    /**
+     * Print formatted text on screen at given offset with given color
+     *
+     * @param text
+     *         text
+     * @param offset
+     *         offset position
+     * @param color
+     *         text color
+     */
+    public void printFormattedText(String text, int offset, int color) {
+        PETSCIIFormatter.printFormattedText(this, text, offset, color);
     }
 }
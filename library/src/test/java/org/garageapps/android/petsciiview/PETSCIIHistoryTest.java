@@ -0,0 +1,154 @@
+package org.garageapps.android.petsciiview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PETSCIIHistoryTest
+ * <p>
+ * Records edits of a view and checks undo, redo, merging of repeated changes and the byte limit.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIHistoryTest {
+
+    private PETSCIIView view;
+
+    @Before
+    public void setUp() {
+        view = TestViews.createView();
+    }
+
+    @Test
+    public void undoAndRedoRestoreStep() {
+
+        PETSCIIHistory history = attachHistory(4096);
+        char[] screenBefore = view.getScreenRam().clone();
+        int[] colorsBefore = view.getColorRam().clone();
+
+        view.printText("HELLO", 2, 3, 7);
+        view.putColor(2, 0, 0);
+        history.endStep();
+        char[] screenAfter = view.getScreenRam().clone();
+        int[] colorsAfter = view.getColorRam().clone();
+
+        history.undo(view);
+        assertArrayEquals(screenBefore, view.getScreenRam());
+        assertArrayEquals(colorsBefore, view.getColorRam());
+        assertFalse(history.canUndo());
+        assertTrue(history.canRedo());
+
+        history.redo(view);
+        assertArrayEquals(screenAfter, view.getScreenRam());
+        assertArrayEquals(colorsAfter, view.getColorRam());
+        assertTrue(history.canUndo());
+        assertFalse(history.canRedo());
+    }
+
+    @Test
+    public void undoRestoresOldestValueOfCellChangedSeveralTimes() {
+
+        PETSCIIHistory history = attachHistory(4096);
+        char before = view.getScreenRam()[0];
+
+        view.putChar('A', 0, 0);
+        view.putChar('B', 1, 0);
+        view.putChar('C', 0, 0);
+        history.undo(view);
+
+        assertEquals(before, view.getScreenRam()[0]);
+        assertEquals(before, view.getScreenRam()[1]);
+    }
+
+    @Test
+    public void repeatedChangesOfCellAreMerged() {
+
+        PETSCIIHistory history = attachHistory(4096);
+
+        view.putChar('A', 0, 0);
+        int size = history.getSizeInBytes();
+        view.putChar('B', 0, 0);
+        view.putColor(3, 0, 0);
+        assertEquals(size, history.getSizeInBytes());
+
+        view.putChar('C', 1, 0);
+        assertTrue(history.getSizeInBytes() > size);
+    }
+
+    @Test
+    public void newStepClearsRedo() {
+
+        PETSCIIHistory history = attachHistory(4096);
+
+        view.putChar('A', 0, 0);
+        history.undo(view);
+        assertTrue(history.canRedo());
+
+        view.putChar('B', 1, 0);
+        assertFalse(history.canRedo());
+
+        history.redo(view);
+        assertEquals('B', view.getScreenRam()[1]);
+    }
+
+    @Test
+    public void oldestStepsAreDropped() {
+
+        PETSCIIHistory history = attachHistory(4096);
+        view.putChar('A', 0, 0);
+        history.endStep();
+        int stepSize = history.getSizeInBytes();
+
+        history = attachHistory(2 * stepSize);
+        for (int i = 0; i < 5; i++) {
+            view.putChar((char) ('A' + i), i, 0);
+            history.endStep();
+            assertTrue(history.getSizeInBytes() <= 2 * stepSize);
+        }
+
+        // only the last two steps are left
+        history.undo(view);
+        history.undo(view);
+        assertFalse(history.canUndo());
+        assertEquals('C', view.getScreenRam()[2]);
+    }
+
+    @Test
+    public void stepExceedingLimitIsDropped() {
+
+        PETSCIIHistory history = attachHistory(4096);
+        view.putChar('A', 0, 0);
+        history.endStep();
+        int stepSize = history.getSizeInBytes();
+
+        history = attachHistory(2 * stepSize);
+        view.putChar('X', 0, 1);
+        history.endStep();
+
+        // a whole row doesn't fit, the step and all older steps are gone
+        view.fillWithChar('Y', 0, 2, view.getScreenWidth() - 1, 2);
+        assertFalse(history.canUndo());
+        assertEquals(0, history.getSizeInBytes());
+
+        // next step is recorded again
+        history.endStep();
+        view.putChar('Z', 0, 3);
+        history.endStep();
+        assertTrue(history.canUndo());
+        assertTrue(history.getSizeInBytes() <= 2 * stepSize);
+    }
+
+    /**
+     * Attach new history to the view
+     */
+    private PETSCIIHistory attachHistory(int maxBytes) {
+        PETSCIIHistory history = new PETSCIIHistory(maxBytes);
+        view.setHistory(history);
+        return history;
+    }
+}
@@ -0,0 +1,223 @@
+package org.garageapps.android.petsciiview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * PETSCIIMirrorTest
+ * <p>
+ * Connects mirror clients to a server over localhost and checks that they end up with the screen of the view. The test
+ * thread plays the UI thread: it publishes frames and runs actions posted to the view.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIMirrorTest {
+
+    private static final long TIMEOUT = 5000;
+
+    /**
+     * View which queues posted actions for the test thread
+     */
+    private static class PostingView extends PETSCIIView {
+
+        private final BlockingQueue<Runnable> posted = new LinkedBlockingQueue<>();
+
+        private PostingView() {
+            super(TestViews.createContext());
+        }
+
+        @Override
+        public boolean post(Runnable action) {
+            posted.add(action);
+            return true;
+        }
+    }
+
+    /**
+     * Counts received frames and disconnects
+     */
+    private static class FrameCounter implements PETSCIIMirrorClient.PETSCIIMirrorListener {
+
+        private final Semaphore frames = new Semaphore(0);
+        private final Semaphore disconnects = new Semaphore(0);
+
+        @Override
+        public void onFrame(PETSCIIMirrorClient client) {
+            frames.release();
+        }
+
+        @Override
+        public void onDisconnected(PETSCIIMirrorClient client) {
+            disconnects.release();
+        }
+    }
+
+    private PostingView view;
+    private PETSCIIMirrorServer server;
+    private PETSCIIMirrorClient client;
+
+    @Before
+    public void setUp() throws IOException {
+
+        view = new PostingView();
+        view.setBorderColor(2);
+        view.setBkgColor(6);
+        view.printText("MIRROR TEST", 2, 3, 7);
+        view.putColor(1, 0, 0);
+
+        server = new PETSCIIMirrorServer(view, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.disconnect();
+        }
+        server.stop();
+    }
+
+    @Test
+    public void newClientReceivesFullFrame() throws Exception {
+
+        FrameCounter counter = connect();
+
+        // no publish call, the server asks for the frame itself
+        awaitFrame(counter);
+        assertMirrored(client);
+    }
+
+    @Test
+    public void changesArriveAsDelta() throws Exception {
+
+        FrameCounter counter = connect();
+        awaitFrame(counter);
+
+        view.printText("CHANGED", 10, 20, 5);
+        view.putChar('*', 39, 24);
+        view.putColor(9, 39, 24);
+        view.setBorderColor(11);
+        server.publish();
+
+        awaitFrame(counter);
+        assertMirrored(client);
+    }
+
+    @Test
+    public void reconnectedClientReceivesCurrentScreen() throws Exception {
+
+        FrameCounter counter = connect();
+        awaitFrame(counter);
+        client.disconnect();
+
+        view.printText("WHILE AWAY", 0, 10, 3);
+        view.setBkgColor(0);
+        server.publish();
+
+        counter = connect();
+        awaitFrame(counter);
+        assertMirrored(client);
+    }
+
+    @Test
+    public void oversizedScreenIsRejected() throws Exception {
+
+        ServerSocketChannel fakeServer = ServerSocketChannel.open();
+        try {
+            fakeServer.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+
+            FrameCounter counter = new FrameCounter();
+            client = new PETSCIIMirrorClient("127.0.0.1", fakeServer.socket().getLocalPort());
+            client.setListener(counter);
+            client.connect();
+
+            // frame of a 8000x8000 screen, far more cells than a message can hold
+            ByteBuffer message = ByteBuffer.allocate(32);
+            message.putInt(0);
+            message.put((byte) PETSCIIMirrorProtocol.FLAG_SIZE);
+            PETSCIIMirrorProtocol.putVarInt(message, 8000);
+            PETSCIIMirrorProtocol.putVarInt(message, 8000);
+            PETSCIIMirrorProtocol.putVarInt(message, 0);
+            message.putInt(0, message.position() - PETSCIIMirrorProtocol.HEADER_SIZE);
+            message.flip();
+
+            SocketChannel channel = fakeServer.accept();
+            channel.write(message);
+
+            assertTrue("Client still connected", counter.disconnects.tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS));
+            assertEquals(0, counter.frames.availablePermits());
+            assertEquals(0, client.getScreenWidth());
+            channel.close();
+        } finally {
+            fakeServer.close();
+        }
+    }
+
+    /**
+     * Connect a new client to the server
+     */
+    private FrameCounter connect() throws IOException {
+
+        FrameCounter counter = new FrameCounter();
+
+        client = new PETSCIIMirrorClient("127.0.0.1", server.getPort());
+        client.setListener(counter);
+        client.connect();
+
+        return counter;
+    }
+
+    /**
+     * Run posted actions on this thread until the client received a frame
+     */
+    private void awaitFrame(FrameCounter counter) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (!counter.frames.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+
+            Runnable action;
+            while ((action = view.posted.poll()) != null) {
+                action.run();
+            }
+
+            if (System.currentTimeMillis() > deadline) {
+                fail("No frame received");
+            }
+        }
+    }
+
+    /**
+     * Check that client screen equals the view
+     */
+    private void assertMirrored(PETSCIIMirrorClient client) {
+
+        assertEquals(view.getScreenWidth(), client.getScreenWidth());
+        assertEquals(view.getScreenHeight(), client.getScreenHeight());
+        assertEquals(view.getBorderColor(), client.getBorderColor());
+        assertEquals(view.getBkgColor(), client.getBkgColor());
+
+        for (int y = 0; y < view.getScreenHeight(); y++) {
+            for (int x = 0; x < view.getScreenWidth(); x++) {
+                int offset = x + y * view.getScreenWidth();
+                assertEquals("Char at " + x + "," + y, view.getScreenRam()[offset], client.getChar(x, y));
+                assertEquals("Color at " + x + "," + y, view.getColorRam()[offset], client.getColor(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.garageapps.android.petsciiview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * PETSCIIRecorderTest
+ * <p>
+ * Records edits of a view, plays the log into a second view and checks that both show the same screen.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIRecorderTest {
+
+    private PETSCIIView view;
+    private PETSCIIRecorder recorder;
+
+    @Before
+    public void setUp() {
+
+        view = TestViews.createView();
+        view.setBorderColor(2);
+        view.printText("BEFORE RECORDING", 0, 0, 7);
+
+        recorder = new PETSCIIRecorder();
+        view.setRecorder(recorder);
+    }
+
+    @Test
+    public void playbackRestoresScreen() {
+
+        view.printText("RECORDED", 4, 2, 5);
+        view.putColor(9, 0, 0);
+        view.setBkgColor(6);
+        view.setCursorPosition(0, 10);
+        view.println("HELLO");
+
+        assertPlayedBack();
+    }
+
+    @Test
+    public void playbackFollowsResize() {
+
+        view.printText("OLD SIZE", 0, 1, 5);
+        view.setScreenWidth(60);
+        view.setScreenHeight(30);
+        view.printText("NEW SIZE", 50, 29, 3);
+        view.setBorderColor(11);
+
+        assertPlayedBack();
+    }
+
+    /**
+     * Play the log into a new view and compare it with the recorded view
+     */
+    private void assertPlayedBack() {
+
+        PETSCIIView played = TestViews.createView();
+        new PETSCIIPlayer(recorder.toByteArray()).applyUntil(played, Long.MAX_VALUE);
+
+        assertEquals(view.getScreenWidth(), played.getScreenWidth());
+        assertEquals(view.getScreenHeight(), played.getScreenHeight());
+        assertEquals(view.getBorderColor(), played.getBorderColor());
+        assertEquals(view.getBkgColor(), played.getBkgColor());
+        assertArrayEquals(view.getScreenRam(), played.getScreenRam());
+        assertArrayEquals(view.getColorRam(), played.getColorRam());
+    }
+}
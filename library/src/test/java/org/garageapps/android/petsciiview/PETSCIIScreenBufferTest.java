@@ -0,0 +1,41 @@
+package org.garageapps.android.petsciiview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * PETSCIIScreenBufferTest
+ * <p>
+ * Writes the same cells to a view and to a buffer and checks that both address them alike.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIScreenBufferTest {
+
+    @Test
+    public void positionsAreAddressedLikeInView() {
+
+        PETSCIIView view = TestViews.createView();
+        view.fillWithChar(' ');
+        view.fillWithColor(14);
+        PETSCIIScreenBuffer buffer = new PETSCIIScreenBuffer(view.getScreenWidth(), view.getScreenHeight());
+        int width = view.getScreenWidth();
+        int height = view.getScreenHeight();
+
+        // past the row end, before the screen start and past the screen end
+        view.putChar('A', width + 2, 0);
+        buffer.putChar('A', width + 2, 0);
+        view.putColor(3, -1, 1);
+        buffer.putColor(3, -1, 1);
+        view.fillWithChar('B', width - 2, 3, width + 1, 4);
+        buffer.fillWithChar('B', width - 2, 3, width + 1, 4);
+        view.fillWithColor(5, -3, -1, 2, 0);
+        buffer.fillWithColor(5, -3, -1, 2, 0);
+        view.fillWithChar('C', width - 1, height - 1, width + 3, height);
+        buffer.fillWithChar('C', width - 1, height - 1, width + 3, height);
+
+        assertArrayEquals(view.getScreenRam(), buffer.getScreenRam());
+        assertArrayEquals(view.getColorRam(), buffer.getColorRam());
+    }
+}
@@ -0,0 +1,57 @@
+package org.garageapps.android.petsciiview;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * PETSCIIScrollbackTest
+ * <p>
+ * Pushes screen lines into a scrollback and decodes them again.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIScrollbackTest {
+
+    private static final int WIDTH = 8;
+
+    @Test
+    public void pushedLineIsDecoded() {
+
+        PETSCIIScrollback scrollback = new PETSCIIScrollback(4);
+        char[] screenRam = "HELLO   ".toCharArray();
+        int[] colorRam = {1, 1, 2, 2, 3, 3, 3, 3};
+        scrollback.push(screenRam, colorRam, 0, WIDTH);
+
+        char[] chars = new char[WIDTH];
+        int[] colors = new int[WIDTH];
+        scrollback.getLine(0, chars, colors);
+
+        assertEquals(1, scrollback.getLineCount());
+        assertArrayEquals(screenRam, chars);
+        assertEquals(1, colors[0]);
+        assertEquals(2, colors[3]);
+    }
+
+    @Test
+    public void clearedLineIsDecodedEmpty() {
+
+        PETSCIIScrollback scrollback = new PETSCIIScrollback(4);
+        scrollback.push("HELLO   ".toCharArray(), new int[WIDTH], 0, WIDTH);
+
+        char[] chars = new char[WIDTH];
+        int[] colors = new int[WIDTH];
+        scrollback.getLine(0, chars, colors);
+        scrollback.clear();
+
+        // a view scrolled back past the cleared lines must not keep showing them
+        Arrays.fill(colors, 5);
+        scrollback.getLine(-1, chars, colors);
+
+        assertArrayEquals("        ".toCharArray(), chars);
+        assertArrayEquals(new int[WIDTH], colors);
+    }
+}
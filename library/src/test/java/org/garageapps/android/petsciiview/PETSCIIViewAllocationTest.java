@@ -0,0 +1,182 @@
+package org.garageapps.android.petsciiview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * PETSCIIViewAllocationTest
+ * <p>
+ * Runs the write and render loop against a fake canvas and fails if any frame allocates on the rendering threads.
+ * Framework calls are stubs here, so the test covers the allocations of the view itself.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIViewAllocationTest {
+
+    private static final int WARMUP_FRAMES = 2000;
+    private static final int MEASURED_FRAMES = 500;
+
+    private static final String STATUS = "**** COMMODORE 64 BASIC V2 ****";
+    private static final String LINE = "READY.";
+
+    /**
+     * Canvas which draws nothing and clips to the whole view
+     */
+    private static class FakeCanvas extends Canvas {
+
+        private int drawCalls;
+
+        @Override
+        public boolean getClipBounds(Rect bounds) {
+            bounds.left = 0;
+            bounds.top = 0;
+            bounds.right = 4096;
+            bounds.bottom = 4096;
+            return true;
+        }
+
+        @Override
+        public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+            drawCalls++;
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+            drawCalls++;
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+            drawCalls++;
+        }
+    }
+
+    private com.sun.management.ThreadMXBean threads;
+    private PETSCIIView view;
+    private FakeCanvas canvas;
+
+    @Before
+    public void setUp() {
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        view = TestViews.createView();
+        canvas = new FakeCanvas();
+    }
+
+    @Test
+    public void standardFrameDoesNotAllocate() {
+        assertFramesDoNotAllocate();
+    }
+
+    @Test
+    public void extendedBackgroundFrameDoesNotAllocate() {
+        view.setCharMode(PETSCIIView.MODE_EXTENDED_BACKGROUND);
+        view.setExtendedBkgColor(1, 2);
+        assertFramesDoNotAllocate();
+    }
+
+    @Test
+    public void bandedFrameDoesNotAllocate() {
+        view.setBandedRendering(true);
+        assertFramesDoNotAllocate();
+    }
+
+    /**
+     * Warm up, then render measured frames and check that no thread rendering them allocated
+     */
+    private void assertFramesDoNotAllocate() {
+
+        for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+            renderFrame(frame);
+        }
+
+        // band workers exist after warmup
+        long[] threadIds = getRenderingThreadIds();
+
+        // reading the counters may allocate itself, measure that first
+        long overhead = -getAllocatedBytes(threadIds);
+        overhead += getAllocatedBytes(threadIds);
+
+        canvas.drawCalls = 0;
+        long allocated = -getAllocatedBytes(threadIds);
+        for (int frame = 0; frame < MEASURED_FRAMES; frame++) {
+            renderFrame(frame);
+        }
+        allocated += getAllocatedBytes(threadIds);
+
+        assertTrue("Frames drew nothing", canvas.drawCalls > 0);
+        assertEquals("Bytes allocated by " + MEASURED_FRAMES + " frames", 0, allocated - overhead);
+    }
+
+    /**
+     * Write cells like a terminal would and render the frame
+     */
+    private void renderFrame(int frame) {
+
+        int x = frame % view.getScreenWidth();
+
+        view.putChar(PETSCIIChars.UPPERCASE[frame & 0xff], x, 5);
+        view.putColor(frame & 0x0f, x, 5);
+        view.putFlash((frame & 1) == 0, x, 6);
+        view.printText(STATUS, 4, 1, frame & 0x0f);
+
+        view.setCursorPosition(0, view.getScreenHeight() - 1);
+        view.println(LINE);
+
+        view.invalidate();
+        view.onDraw(canvas);
+    }
+
+    /**
+     * Return ids of this thread and of the band workers
+     */
+    private long[] getRenderingThreadIds() {
+
+        List<Long> ids = new ArrayList<>();
+        ids.add(Thread.currentThread().getId());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("PETSCIIView band")) {
+                ids.add(thread.getId());
+            }
+        }
+
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Return bytes allocated by given threads so far
+     */
+    private long getAllocatedBytes(long[] threadIds) {
+
+        long bytes = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threadIds)) {
+            bytes += allocated;
+        }
+
+        return bytes;
+    }
+}
@@ -0,0 +1,87 @@
+package org.garageapps.android.petsciiview;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PETSCIIViewBandTest
+ * <p>
+ * Checks which bands a banded frame renders again after writes and global changes.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+public class PETSCIIViewBandTest {
+
+    /**
+     * Canvas which draws nothing and clips to the whole view
+     */
+    private static class FakeCanvas extends Canvas {
+
+        @Override
+        public boolean getClipBounds(Rect bounds) {
+            bounds.left = 0;
+            bounds.top = 0;
+            bounds.right = 4096;
+            bounds.bottom = 4096;
+            return true;
+        }
+    }
+
+    private PETSCIIView view;
+    private FakeCanvas canvas;
+    private int bandCount;
+
+    @Before
+    public void setUp() {
+
+        view = TestViews.createView();
+        view.setBandedRendering(true);
+        canvas = new FakeCanvas();
+
+        // the first frame renders every band
+        view.onDraw(canvas);
+        bandCount = view.getDirtyBandCount();
+        assertTrue("Screen has a single band", bandCount > 1);
+    }
+
+    @After
+    public void tearDown() {
+        view.setBandedRendering(false);
+    }
+
+    @Test
+    public void unchangedFrameRendersNoBand() {
+
+        view.invalidate();
+        view.onDraw(canvas);
+
+        assertEquals(0, view.getDirtyBandCount());
+    }
+
+    @Test
+    public void writeRendersOnlyItsBand() {
+
+        view.putChar('A', 0, 0);
+        view.invalidate();
+        view.onDraw(canvas);
+
+        assertEquals(1, view.getDirtyBandCount());
+    }
+
+    @Test
+    public void globalChangeRendersAllBands() {
+
+        view.setBkgColor(2);
+        view.invalidate();
+        view.onDraw(canvas);
+
+        assertEquals(bandCount, view.getDirtyBandCount());
+    }
+}
@@ -0,0 +1,48 @@
+package org.garageapps.android.petsciiview;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.util.AttributeSet;
+
+import static org.mockito.AdditionalAnswers.returnsSecondArg;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * TestViews
+ * <p>
+ * Creates views on the JVM, view attributes fall back to their defaults.
+ *
+ * @author Vladimir Ignjatijevic
+ */
+final class TestViews {
+
+    private TestViews() {
+    }
+
+    /**
+     * Return context whose styled attributes return the default value of every attribute
+     */
+    static Context createContext() {
+
+        TypedArray attributes = mock(TypedArray.class);
+        when(attributes.getInteger(anyInt(), anyInt())).then(returnsSecondArg());
+        when(attributes.getBoolean(anyInt(), anyBoolean())).then(returnsSecondArg());
+
+        Context context = mock(Context.class);
+        when(context.obtainStyledAttributes(any(AttributeSet.class), any(int[].class), anyInt(), anyInt()))
+                .thenReturn(attributes);
+
+        return context;
+    }
+
+    /**
+     * Create view with default attributes
+     */
+    static PETSCIIView createView() {
+        return new PETSCIIView(createContext());
+    }
+}